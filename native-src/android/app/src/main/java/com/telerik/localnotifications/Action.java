@@ -15,6 +15,9 @@ import static com.telerik.localnotifications.LocalNotificationsPlugin.TAG;
  * NotificationCompat.Action object. Does not include the PendingIntent so
  * that it may be generated each time the notification is built. Necessary to
  * compensate for missing functionality in the support library.
+ *
+ * The options are parsed (and the RemoteInput built) once, when the action is
+ * created, as the same action is used for every notification that shows it.
  */
 public final class Action {
 
@@ -24,8 +27,12 @@ public final class Action {
   // The application context
   private final Context context;
 
-  // The action spec
-  private final JSONObject options;
+  private final String id;
+  private final String title;
+  private final boolean launch;
+
+  // Only set for actions of type input
+  private final RemoteInput input;
 
   /**
    * Structure to encapsulate a named action that can be shown as part of
@@ -36,21 +43,30 @@ public final class Action {
    */
   Action(Context context, JSONObject options) {
     this.context = context;
-    this.options = options;
+
+    title = options.optString("title", "Tap here");
+    id = options.optString("id", title);
+    launch = options.optBoolean("launch", true);
+
+    input = "input".equals(options.optString("type")) ? new RemoteInput.Builder(id)
+        .setLabel(options.optString("placeholder"))
+        .setAllowFreeFormInput(options.optBoolean("editable", true))
+        .setChoices(getChoices(options))
+        .build() : null;
   }
 
   /**
    * Gets the ID for the action.
    */
   public String getId() {
-    return options.optString("id", getTitle());
+    return id;
   }
 
   /**
    * Gets the Title for the action.
    */
   public String getTitle() {
-    return options.optString("title", "Tap here");
+    return title;
   }
 
   /**
@@ -76,32 +92,27 @@ public final class Action {
    * Gets the value of the launch flag.
    */
   public boolean isLaunchingApp() {
-    return options.optBoolean("launch", true);
+    return launch;
   }
 
   /**
    * Gets the type for the action.
    */
   public boolean isWithInput() {
-    String type = options.optString("type");
-    return "input".equals(type);
+    return input != null;
   }
 
   /**
    * Gets the input config in case of the action is of type input.
    */
   public RemoteInput getInput() {
-    return new RemoteInput.Builder(getId())
-        .setLabel(options.optString("placeholder"))
-        .setAllowFreeFormInput(options.optBoolean("editable", true))
-        .setChoices(getChoices())
-        .build();
+    return input;
   }
 
   /**
    * List of possible choices for input actions.
    */
-  private String[] getChoices() {
+  private static String[] getChoices(JSONObject options) {
     JSONArray opts = options.optJSONArray("choices");
 
     Log.d(TAG, "getChoices, opts: " + opts);
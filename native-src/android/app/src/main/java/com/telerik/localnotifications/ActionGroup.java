@@ -4,24 +4,43 @@ import android.content.Context;
 import android.util.Log;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static android.os.Build.VERSION.SDK_INT;
 import static android.os.Build.VERSION_CODES.N;
 
+/**
+ * A set of actions, parsed once so building a notification only needs to turn them into buttons.
+ *
+ * Groups registered with a context are persisted in the {@link StoreLog}, so a notification that refers to one by id
+ * still gets its buttons when it fires after the process was killed. They are loaded (and parsed) the first time one
+ * is looked up.
+ */
 public final class ActionGroup {
 
+  private static final String TAG = "ActionGroup";
+
+  // Where groups were persisted before they moved to the StoreLog:
+  static final String SHARED_PREFERENCES_KEY = "LocalNotificationsActionGroups";
+
   // Saves all groups for later lookup.
-  private static final Map<String, ActionGroup> groups = new HashMap<String, ActionGroup>();
+  private static final Map<String, ActionGroup> groups = new ConcurrentHashMap<String, ActionGroup>();
+
+  // Whether the persisted groups have been loaded into groups.
+  private static volatile boolean loaded;
 
   // The ID of the action group.
   private final String id;
 
+  // The action specs, to persist the group.
+  private final JSONArray list;
+
   // List of actions
   private final Action[] actions;
 
@@ -36,7 +55,21 @@ public final class ActionGroup {
   }
 
   /**
-   * Register the action group for later lookup.
+   * Lookup the action groups with the specified group id, including the persisted ones.
+   *
+   * @param id The ID of the action group to find.
+   * @return Null if no group was found.
+   */
+  public static ActionGroup lookup(Context context, String id) {
+    if (!loaded) {
+      load(context);
+    }
+
+    return groups.get(id);
+  }
+
+  /**
+   * Register the action group for later lookup, in this process only.
    *
    * @param group The action group to register.
    */
@@ -45,12 +78,23 @@ public final class ActionGroup {
   }
 
   /**
-   * Unregister the action group.
+   * Register the action group for later lookup, and persist it.
+   *
+   * @param group The action group to register.
+   */
+  public static void register(Context context, ActionGroup group) {
+    register(group);
+    StoreLog.get(context).putActionGroup(group.getId(), group.list.toString());
+  }
+
+  /**
+   * Unregister the action group, and remove it from the persisted ones.
    *
    * @param id The id of the action group to remove.
    */
-  public static void unregister(String id) {
+  public static void unregister(Context context, String id) {
     groups.remove(id);
+    StoreLog.get(context).removeActionGroup(id);
   }
 
   /**
@@ -99,17 +143,46 @@ public final class ActionGroup {
       actions.add(new Action(context, opts));
     }
 
-    return new ActionGroup(id, actions.toArray(new Action[actions.size()]));
+    return new ActionGroup(id, list, actions.toArray(new Action[actions.size()]));
+  }
+
+  /**
+   * Load the persisted groups, unless they have been already. Groups registered in this process take precedence.
+   */
+  private static synchronized void load(Context context) {
+    if (loaded) {
+      return;
+    }
+
+    final Map<String, String> persisted = StoreLog.get(context).readActionGroups();
+
+    for (Map.Entry<String, String> entry : persisted.entrySet()) {
+      final String id = entry.getKey();
+
+      if (groups.containsKey(id)) {
+        continue;
+      }
+
+      try {
+        groups.put(id, parse(context.getApplicationContext(), id, new JSONArray(entry.getValue())));
+      } catch (JSONException e) {
+        Log.e(TAG, "Error loading action group " + id + ": " + e.getMessage(), e);
+      }
+    }
+
+    loaded = true;
   }
 
   /**
    * Creates an action group.
    *
    * @param id      The ID of the group.
+   * @param list    The action specs.
    * @param actions The list of actions.
    */
-  private ActionGroup(String id, Action[] actions) {
+  private ActionGroup(String id, JSONArray list, Action[] actions) {
     this.id = id;
+    this.list = list;
     this.actions = actions;
   }
 
@@ -0,0 +1,161 @@
+package com.telerik.localnotifications;
+
+import android.app.AlarmManager;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Opt-in batching of the alarms of notifications that fire at (about) the same time.
+ *
+ * Time is cut into windows of a configurable width. Instead of an alarm per notification, the notifications whose
+ * trigger time falls in the same window share one alarm, armed for the earliest of them. When it fires, the receiver
+ * delivers the whole window in one invocation: the members are found through the store's trigger index, their fired
+ * timestamps go out in a single store write and their posts through one {@link NotificationPoster} pass. The later
+ * members of a window are delivered early, by less than its width.
+ *
+ * Only one-off alarms are batched; notifications that use a repeating alarm (fixed intervals without alertWhileIdle)
+ * keep their own. The trigger index doesn't tell batched notifications from those, nor from the ones that were given an
+ * alarm of their own before batching was enabled or after it was disabled, so the store records which ones are batched
+ * (see {@link StoreLog#isBatched}) and a window only delivers those.
+ */
+final class AlarmBatcher {
+
+  private static final String TAG = "AlarmBatcher";
+
+  static final String ACTION_BATCH = "com.telerik.localnotifications.ACTION_BATCH";
+
+  private static final String EXTRA_SLOT = "slot";
+  private static final String EXTRA_WINDOW = "window";
+
+  private AlarmBatcher() {
+  }
+
+  static boolean isEnabled(Context context) {
+    return PluginConfig.getBatchWindow(context) > 0;
+  }
+
+  static boolean isBatch(Intent intent) {
+    return intent.getAction() != null && intent.getAction().startsWith(ACTION_BATCH);
+  }
+
+  /**
+   * Set the width of the windows, 0 to give every notification its own alarm again. Applies to the alarms set from
+   * now on.
+   *
+   * @param context
+   * @param window Width in ms
+   */
+  static void setWindow(Context context, long window) {
+    PluginConfig.setBatchWindow(context, Math.max(window, 0));
+  }
+
+  /**
+   * Arm the alarm of the window the given notification falls in, instead of one of its own.
+   *
+   * @param context
+   * @param alarmManager
+   * @param spec
+   * @param triggerTime When the notification should fire
+   */
+  static void schedule(Context context, AlarmManager alarmManager, NotificationSpec spec, long triggerTime) {
+    final long window = PluginConfig.getBatchWindow(context);
+    final long slot = triggerTime / window;
+    final StoreLog log = StoreLog.get(context);
+
+    // The window's members are looked up by their trigger time, so make sure the store has this one:
+    log.setTrigger(spec.getId(), triggerTime);
+
+    // An alarm set for it alone (ie. before batching was enabled) would deliver it twice:
+    final PendingIntent own = PendingIntent.getBroadcast(context, 0, NotificationAlarmReceiver.getAlarmIntent(context, spec.getId()), PendingIntent.FLAG_NO_CREATE);
+    if (own != null) {
+      alarmManager.cancel(own);
+      own.cancel();
+    }
+    log.setBatched(spec.getId(), true);
+
+    long alarmTime = triggerTime;
+    boolean exact = spec.isAlertWhileIdle();
+    int batched = 0;
+    for (int id : log.dueBetween(slot * window, (slot + 1) * window)) {
+      final NotificationSpec member = id == spec.getId() ? spec : Store.getSpec(context, id);
+      if (member == null || !log.isBatched(id)) {
+        continue;
+      }
+
+      alarmTime = Math.min(alarmTime, log.trigger(id));
+      exact |= member.isAlertWhileIdle();
+      batched++;
+    }
+
+    // The alarm goes off for the earliest member:
+    final PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, getIntent(context, slot, window), PendingIntent.FLAG_UPDATE_CURRENT);
+
+    if (exact) {
+      alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, alarmTime, pendingIntent);
+    } else {
+      alarmManager.set(AlarmManager.RTC_WAKEUP, alarmTime, pendingIntent);
+    }
+
+    Log.d(TAG, "Notification " + spec.getId() + " batched with " + Math.max(batched - 1, 0) + " others at " + alarmTime);
+  }
+
+  /**
+   * Deliver every notification of the window whose alarm fired. Called by the receiver.
+   *
+   * @param context
+   * @param intent
+   * @return Number of notifications delivered
+   */
+  static int deliver(Context context, Intent intent) {
+    final long slot = intent.getLongExtra(EXTRA_SLOT, 0);
+    final long window = intent.getLongExtra(EXTRA_WINDOW, 0);
+
+    if (window <= 0) {
+      return 0;
+    }
+
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    // Taken before delivering, as repeating members move on to their next occurrence (which may be in the same window):
+    final int[] members = Store.getDueBetween(context, slot * window, (slot + 1) * window);
+    final StoreLog log = StoreLog.get(context);
+    int delivered = 0;
+
+    for (int id : members) {
+      // Its own alarm delivers it:
+      if (!log.isBatched(id)) {
+        continue;
+      }
+
+      final NotificationSpec spec = Store.getSpec(context, id);
+      if (spec == null) {
+        continue;
+      }
+
+      NotificationAlarmReceiver.deliver(context, notificationManager, spec);
+      delivered++;
+    }
+
+    return delivered;
+  }
+
+  /**
+   * Take the given notification out of its window, as it's getting an alarm of its own.
+   *
+   * @param context
+   * @param id
+   */
+  static void unbatch(Context context, int id) {
+    StoreLog.get(context).setBatched(id, false);
+  }
+
+  private static Intent getIntent(Context context, long slot, long window) {
+    // The slot is part of the action, so each window gets its own PendingIntent:
+    return new Intent(context, NotificationAlarmReceiver.class)
+        .setAction(ACTION_BATCH + "." + window + "." + slot)
+        .putExtra(EXTRA_SLOT, slot)
+        .putExtra(EXTRA_WINDOW, window);
+  }
+}
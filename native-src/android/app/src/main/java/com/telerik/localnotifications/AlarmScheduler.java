@@ -0,0 +1,199 @@
+package com.telerik.localnotifications;
+
+import android.app.AlarmManager;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Opt-in scheduler mode that registers a single AlarmManager alarm, instead of one per notification.
+ *
+ * The store already keeps the notifications ordered by their next trigger time, so the alarm is simply armed for
+ * the earliest one. When it fires, every notification that is due gets delivered (moving repeating ones forward)
+ * and the alarm is re-armed for the next trigger time. This keeps apps with large schedules below the per-app alarm
+ * limit and turns a boot restore into a single AlarmManager call.
+ *
+ * The alarm is allowed while idle (and exact if the earliest notification uses alertWhileIdle), so a notification
+ * which doesn't need to wake the device can't hold back a later one which does.
+ */
+final class AlarmScheduler {
+
+  private static final String TAG = "AlarmScheduler";
+
+  static final String ACTION_DUE = "com.telerik.localnotifications.ACTION_DUE";
+
+  // Trigger time the alarm is currently armed for (in this process), so scheduling a notification which isn't
+  // the earliest one doesn't cost an AlarmManager call:
+  private static long armedAt;
+
+  private AlarmScheduler() {
+  }
+
+  static boolean isEnabled(Context context) {
+    return PluginConfig.isSingleAlarm(context);
+  }
+
+  /**
+   * Switch between the single alarm and the one alarm per notification modes, moving the existing alarms over.
+   *
+   * @param context
+   * @param enabled
+   */
+  static void setEnabled(Context context, boolean enabled) {
+    if (isEnabled(context) == enabled) {
+      return;
+    }
+
+    PluginConfig.setSingleAlarm(context, enabled);
+
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    final int[] ids = StoreLog.get(context).ids();
+
+    if (enabled) {
+      for (int id : ids) {
+        final PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, NotificationAlarmReceiver.getAlarmIntent(context, id), PendingIntent.FLAG_NO_CREATE);
+        if (pendingIntent != null) {
+          alarmManager.cancel(pendingIntent);
+          pendingIntent.cancel();
+        }
+      }
+
+      rearm(context, alarmManager);
+    } else {
+      synchronized (AlarmScheduler.class) {
+        alarmManager.cancel(getPendingIntent(context));
+        armedAt = 0;
+      }
+
+      for (int id : ids) {
+        final NotificationSpec spec = Store.getSpec(context, id);
+        if (spec != null) {
+          NotificationRestoreReceiver.scheduleNotification(spec, context, notificationManager, alarmManager, null, true);
+        }
+      }
+    }
+
+    Log.i(TAG, "Single alarm mode " + (enabled ? "enabled" : "disabled") + ", moved " + ids.length + " notifications");
+  }
+
+  /**
+   * Make sure the alarm is armed for the earliest scheduled notification, or cancel it if there's none.
+   *
+   * @param context
+   * @param alarmManager
+   */
+  static synchronized void arm(Context context, AlarmManager alarmManager) {
+    final StoreLog log = StoreLog.get(context);
+    final int[] next = log.nextDue(1, 1);
+
+    if (next.length == 0) {
+      if (armedAt != 0) {
+        alarmManager.cancel(getPendingIntent(context));
+        armedAt = 0;
+      }
+      return;
+    }
+
+    final long triggerTime = log.trigger(next[0]);
+
+    if (triggerTime == armedAt) {
+      return;
+    }
+
+    final NotificationSpec spec = Store.getSpec(context, next[0]);
+
+    if (spec != null && spec.isAlertWhileIdle()) {
+      alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerTime, getPendingIntent(context));
+    } else {
+      alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerTime, getPendingIntent(context));
+    }
+
+    armedAt = triggerTime;
+    Log.d(TAG, "Armed for notification " + next[0] + " at " + triggerTime);
+  }
+
+  /**
+   * Arm the alarm even if this process thinks it's already armed (ie. it just fired, or after a reboot).
+   */
+  private static synchronized void rearm(Context context, AlarmManager alarmManager) {
+    armedAt = 0;
+    arm(context, alarmManager);
+  }
+
+  /**
+   * Deliver every notification that is due and re-arm the alarm for the next one. Called when the alarm fires.
+   *
+   * @param context
+   * @return Number of notifications delivered
+   */
+  static int deliverDue(Context context) {
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    final int[] due = Store.getDueBetween(context, 1, System.currentTimeMillis() + 1);
+    int delivered = 0;
+
+    for (int id : due) {
+      if (NotificationAlarmReceiver.deliver(context, notificationManager, id)) {
+        delivered++;
+      } else {
+        // Unschedule it, or we would keep re-arming the alarm for it:
+        StoreLog.get(context).setTrigger(id, 0);
+      }
+    }
+
+    rearm(context, (AlarmManager) context.getSystemService(Context.ALARM_SERVICE));
+
+    return delivered;
+  }
+
+  /**
+   * Restore the schedule after a reboot. Only the notifications whose trigger time passed while the device was off
+   * need to be looked at, the rest is already in the store's trigger index:
+   * - alertWhileIdle notifications that haven't fired are delivered right away, following their catch up policy.
+   * - Other repeating notifications move on to their next occurrence.
+   * - Other non-repeating notifications have expired and are removed.
+   *
+   * Unlike the per notification mode, notifications shown immediately when scheduled (no atTime) are not posted again.
+   *
+   * @param context
+   */
+  static void restore(Context context) {
+    final long now = System.currentTimeMillis();
+    final StoreLog log = StoreLog.get(context);
+    final int[] due = log.dueBetween(1, now + 1);
+    final CatchUp catchUp = new CatchUp();
+
+    for (int id : due) {
+      final NotificationSpec spec = Store.getSpec(context, id);
+      final long lastFired = log.lastFired(id);
+
+      if (spec == null) {
+        log.setTrigger(id, 0);
+      } else if (spec.isAlertWhileIdle() && (spec.isRepeating() || lastFired == 0)
+          && catchUp.add(spec, lastFired == 0 ? -1 : lastFired, now)) {
+        Log.d(TAG, "Notification " + id + " was missed while the device was off");
+      } else if (spec.isRepeating()) {
+        log.setTrigger(id, Store.nextTriggerTime(spec, now));
+      } else if (spec.isAlertWhileIdle()) {
+        // Shown before the device was turned off, or dropped by its catch up policy:
+        log.setTrigger(id, 0);
+      } else {
+        Store.remove(context, id);
+      }
+    }
+
+    // Posting them records them as fired, which moves repeating ones on to their next occurrence:
+    final int missed = catchUp.size();
+    catchUp.post(context, (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE));
+
+    rearm(context, (AlarmManager) context.getSystemService(Context.ALARM_SERVICE));
+    Log.i(TAG, "Restored " + log.size() + " notifications, " + due.length + " were due, " + missed + " missed");
+  }
+
+  private static PendingIntent getPendingIntent(Context context) {
+    final Intent intent = new Intent(context, NotificationAlarmReceiver.class).setAction(ACTION_DUE);
+    return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+  }
+}
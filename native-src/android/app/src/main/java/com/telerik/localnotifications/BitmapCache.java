@@ -0,0 +1,189 @@
+package com.telerik.localnotifications;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Two-tier cache of the bitmaps shown in notifications (images and thumbnails), keyed by their source and the
+ * {@link ImageSlot} they're decoded for.
+ *
+ * The memory tier is an LRU sized in bytes, so a repeating notification, or one that uses the same source as image
+ * and thumbnail, decodes it once. Remote images are also kept on disk scaled down to their slot (in the app's cache
+ * directory, which the system may clear), so after the process restarts they're read at the size they're shown at,
+ * rather than decoded again from the full size download.
+ *
+ * A remote image that {@link ImageFetcher} downloads again (it changed on the server) is invalidated, so the
+ * notifications built from then on show the new one.
+ */
+final class BitmapCache {
+
+  private static final String TAG = "BitmapCache";
+
+  private static final String DIR = "notification-images";
+
+  // Share of the heap the memory tier may take:
+  private static final int MEMORY_FRACTION = 16;
+  private static final long DISK_MAX_BYTES = 10 * 1024 * 1024;
+
+  private static BitmapCache instance;
+
+  private final Context context;
+  private final LruCache<String, Bitmap> memory;
+  private final DiskCache disk;
+
+  private int memoryHits;
+  private int diskHits;
+  private int misses;
+  private long lastBuildBytes;
+  private long peakBuildBytes;
+
+  static synchronized BitmapCache get(Context context) {
+    if (instance == null) {
+      final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+      instance = new BitmapCache(appContext, new File(appContext.getCacheDir(), DIR), (int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION));
+    }
+
+    return instance;
+  }
+
+  private BitmapCache(Context context, File dir, int maxMemoryBytes) {
+    this.context = context;
+    memory = new LruCache<String, Bitmap>(maxMemoryBytes) {
+      @Override
+      protected int sizeOf(String key, Bitmap bitmap) {
+        return bitmap.getByteCount();
+      }
+    };
+    disk = new DiskCache(dir, DISK_MAX_BYTES);
+  }
+
+  /**
+   * Get a bitmap from memory or, failing that, from disk.
+   *
+   * @param source res:// or http(s) source
+   * @param slot What it's decoded for
+   * @return The bitmap, or null if it's not cached
+   */
+  @Nullable Bitmap get(String source, ImageSlot slot) {
+    final String key = memoryKey(source, slot);
+    Bitmap bitmap = memory.get(key);
+
+    if (bitmap != null) {
+      count(1, 0, 0);
+      return bitmap;
+    }
+
+    final File file = disk.get(diskKey(source, slot));
+    bitmap = file == null ? null : slot.decodeFile(file.getPath());
+
+    if (bitmap != null) {
+      memory.put(key, bitmap);
+      count(0, 1, 0);
+      return bitmap;
+    }
+
+    count(0, 0, 1);
+    return null;
+  }
+
+  /**
+   * Cache a bitmap in memory and, if persist is set, on disk.
+   */
+  void put(String source, ImageSlot slot, Bitmap bitmap, boolean persist) {
+    memory.put(memoryKey(source, slot), bitmap);
+
+    if (!persist) {
+      return;
+    }
+
+    try {
+      final File tmp = disk.newTempFile();
+      final OutputStream out = new FileOutputStream(tmp);
+      try {
+        // Photos don't need to be lossless, but anything with transparency does:
+        bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, 90, out);
+      } finally {
+        out.close();
+      }
+      disk.commit(tmp, diskKey(source, slot));
+    } catch (IOException e) {
+      Log.e(TAG, "Error writing " + source + " to the disk cache: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Drop the bitmaps decoded from the given source, ie. because a newer version of it was downloaded.
+   */
+  void invalidate(String source) {
+    final String prefix = memoryKey(source, "");
+
+    for (String key : memory.snapshot().keySet()) {
+      if (key.startsWith(prefix)) {
+        memory.remove(key);
+      }
+    }
+
+    // Only the slots' current sizes can be looked up, entries of other sizes age out of the disk tier:
+    disk.remove(diskKey(source, ImageSlot.largeIcon(context)));
+    disk.remove(diskKey(source, ImageSlot.bigPicture(context)));
+  }
+
+  /**
+   * Record how many bytes of bitmaps a notification was built with.
+   */
+  synchronized void recordBuild(long bitmapBytes) {
+    lastBuildBytes = bitmapBytes;
+    peakBuildBytes = Math.max(peakBuildBytes, bitmapBytes);
+  }
+
+  /**
+   * @return { memoryHits, diskHits, misses, hitRate, memoryBytes, maxMemoryBytes, lastBuildBytes, peakBuildBytes }
+   */
+  synchronized JSONObject getStats() {
+    final JSONObject stats = new JSONObject();
+    final int lookups = memoryHits + diskHits + misses;
+    try {
+      stats.put("memoryHits", memoryHits)
+          .put("diskHits", diskHits)
+          .put("misses", misses)
+          .put("hitRate", lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups)
+          .put("memoryBytes", memory.size())
+          .put("maxMemoryBytes", memory.maxSize())
+          .put("lastBuildBytes", lastBuildBytes)
+          .put("peakBuildBytes", peakBuildBytes);
+    } catch (JSONException e) {
+      Log.e(TAG, "Error building bitmap cache stats" + e.getMessage(), e);
+    }
+    return stats;
+  }
+
+  private synchronized void count(int memoryHit, int diskHit, int miss) {
+    memoryHits += memoryHit;
+    diskHits += diskHit;
+    misses += miss;
+  }
+
+  private static String memoryKey(String source, ImageSlot slot) {
+    return memoryKey(source, slot.key());
+  }
+
+  private static String memoryKey(String source, String slotKey) {
+    // Starts with the source, so invalidate() can find every slot it was decoded for:
+    return source + '\n' + slotKey;
+  }
+
+  private static String diskKey(String source, ImageSlot slot) {
+    return DiskCache.key(source, slot.key());
+  }
+}
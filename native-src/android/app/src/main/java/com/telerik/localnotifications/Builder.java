@@ -1,22 +1,17 @@
 package com.telerik.localnotifications;
 
 import android.app.Notification;
-import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
+import android.service.notification.StatusBarNotification;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.concurrent.ExecutionException;
+import java.io.File;
 
 import static android.app.PendingIntent.FLAG_UPDATE_CURRENT;
 
@@ -25,34 +20,34 @@ public final class Builder {
     public static final String NOTIFICATION_ID = "NOTIFICATION_ID";
 
     private static final String TAG = "Builder";
-    private static final String DEFAULT_CHANNEL = "Notifications";
 
-    private static final int DEFAULT_NOTIFICATION_COLOR = Color.parseColor("#ffffffff");
     private static final int DEFAULT_NOTIFICATION_LED_ON = 500;
     private static final int DEFAULT_NOTIFICATION_LED_OFF = 2000;
 
+    // Lines an InboxStyle shows:
+    private static final int MAX_GROUPED_MESSAGES = 5;
+
     // Methods to build notifications:
 
-    static Notification build(JSONObject options, Context context, int notificationID) {
+    static Notification build(NotificationSpec spec, Context context, int notificationID) {
         // We use options.channel as both channel id and name. If not set, both default to DEFAULT_CHANNEL:
-        return build(options, context, notificationID, options.optString("channel", DEFAULT_CHANNEL));
+        return build(spec, context, notificationID, spec.getChannel());
     }
 
-    static Notification build(JSONObject options, Context context, int notificationID, String channelID) {
-        // Set channel for Android 8+:
+    static Notification build(NotificationSpec spec, Context context, int notificationID, String channelID) {
+        final Notification notification = newBuilder(spec, context, notificationID, channelID).build();
+        repostWhenFetched(context, notificationID, channelID, spec.getImage());
+        repostWhenFetched(context, notificationID, channelID, spec.getThumbnail());
+        return notification;
+    }
 
-        if (android.os.Build.VERSION.SDK_INT >= 26) {
-            final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    /**
+     * Same as above, but returns the builder so the notification can still be adjusted (ie. when catching up).
+     */
+    static NotificationCompat.Builder newBuilder(NotificationSpec spec, Context context, int notificationID, String channelID) {
+        // Set channel for Android 8+ (known channels are cached, so this is usually free):
 
-            if (notificationManager != null && notificationManager.getNotificationChannel(channelID) == null) {
-                NotificationChannel channel = new NotificationChannel(channelID, channelID, NotificationManager.IMPORTANCE_HIGH);
-                if (shouldEnableNotificationLed(options)) {
-                    channel.enableLights(true);
-                    channel.setLightColor(getLedColor(options));
-                }
-                notificationManager.createNotificationChannel(channel);
-            }
-        }
+        ChannelRegistry.ensure(context, spec, channelID);
 
         // Create the builder:
 
@@ -60,89 +55,114 @@ public final class Builder {
 
         builder
             .setDefaults(0)
-            .setContentTitle(options.optString("title", null))
-            .setSubText(options.optString("subtitle", null))
-            .setContentText(options.optString("body", null))
-            .setSmallIcon(options.optInt("icon"))
+            .setContentTitle(spec.getTitle())
+            .setSubText(spec.getSubtitle())
+            .setContentText(spec.getBody())
+            .setSmallIcon(spec.getIcon())
             .setAutoCancel(true) // Remove the notification from the status bar once tapped.
-            .setNumber(options.optInt("badge"))
-            .setColor(options.optInt("color"))
-            .setOngoing(options.optBoolean("ongoing"))
-            .setPriority(options.optInt("priority", options.optBoolean("forceShowWhenInForeground") ? 1 : 0))
-            .setTicker(options.optString("ticker", null)); // Let the OS handle the default value for the ticker.
+            .setNumber(spec.getBadge())
+            .setColor(spec.getColor())
+            .setOngoing(spec.isOngoing())
+            .setPriority(spec.getPriority())
+            .setOnlyAlertOnce(spec.isOnlyAlertOnce())
+            .setTicker(spec.getTicker()); // Let the OS handle the default value for the ticker.
+
+        if (spec.getGroupKey() != null) {
+            // Bundled with the rest of its group, under a summary once there are enough of them (see GroupSummaries):
+            builder.setGroup(spec.getGroupKey());
+        }
 
-        final Object thumbnail = options.opt("thumbnail");
+        // Bytes of the bitmaps this notification carries:
+        long bitmapBytes = 0;
 
-        if (thumbnail instanceof String) {
-            builder.setLargeIcon(getBitmap(context, (String) thumbnail));
+        if (spec.getThumbnail() != null) {
+            final Bitmap thumbnail = getBitmap(context, spec.getThumbnail(), ImageSlot.largeIcon(context));
+            builder.setLargeIcon(thumbnail);
+            bitmapBytes += thumbnail != null ? thumbnail.getByteCount() : 0;
         }
 
         // TODO sound preference is not doing anything
         // builder.setSound(options.has("sound") ? Uri.parse("android.resource://" + context.getPackageName() + "/raw/" + options.getString("sound")) : Uri.parse("android.resource://" + context.getPackageName() + "/raw/notify"))
-        if (options.has("sound")) {
+        if (spec.hasSound()) {
             builder.setSound(android.media.RingtoneManager.getDefaultUri(android.media.RingtoneManager.TYPE_NOTIFICATION));
         }
 
-        applyNotificationLed(options, builder);
-        applyStyle(options, builder, context);
-        applyTapReceiver(options, builder, context, notificationID);
+        applyNotificationLed(spec, builder);
+        applyProgress(spec, builder);
+        bitmapBytes += applyStyle(spec, builder, context);
+        applyTapReceiver(spec, builder, context, notificationID);
         applyClearReceiver(builder, context, notificationID);
-        applyActions(options, builder, context, notificationID);
+        applyActions(spec, builder, context, notificationID);
+
+        if (bitmapBytes > 0) {
+            Log.d(TAG, "Notification " + notificationID + " built with " + bitmapBytes + " bytes of bitmaps");
+            BitmapCache.get(context).recordBuild(bitmapBytes);
+        }
 
-        return builder.build();
+        return builder;
     }
 
 
     // Notification styles:
 
-    private static void applyNotificationLed(JSONObject options, NotificationCompat.Builder builder) {
-        if (shouldEnableNotificationLed(options)) {
-            builder.setLights(getLedColor(options), DEFAULT_NOTIFICATION_LED_ON, DEFAULT_NOTIFICATION_LED_OFF);
+    private static void applyNotificationLed(NotificationSpec spec, NotificationCompat.Builder builder) {
+        if (spec.hasNotificationLed()) {
+            builder.setLights(spec.getLedColor(), DEFAULT_NOTIFICATION_LED_ON, DEFAULT_NOTIFICATION_LED_OFF);
+        }
+    }
+
+    private static void applyProgress(NotificationSpec spec, NotificationCompat.Builder builder) {
+        if (spec.hasProgress()) {
+            builder.setProgress(spec.getProgressMax(), spec.getProgress(), spec.isProgressIndeterminate());
         }
     }
 
-    private static void applyStyle(JSONObject options, NotificationCompat.Builder builder, Context context) {
-        if (options.has("groupedMessages")) {
-            applyGroup(options, builder);
-        } else if (options.optBoolean("bigTextStyle")) {
-            applyBigTextStyle(options, builder);
-        } else if (options.has("image")) {
-            applyImage(options, builder, context);
+    /**
+     * @return Bytes of the bitmaps the style uses
+     */
+    private static long applyStyle(NotificationSpec spec, NotificationCompat.Builder builder, Context context) {
+        if (spec.isGrouped()) {
+            applyGroup(spec, builder, context);
+        } else if (spec.isBigTextStyle()) {
+            applyBigTextStyle(spec, builder);
+        } else if (spec.getImage() != null) {
+            return applyImage(spec, builder, context);
         }
+
+        return 0;
     }
 
-    private static void applyImage(JSONObject options, NotificationCompat.Builder builder, Context context) {
-        Bitmap bitmap = getBitmap(context, options.optString("image", ""));
+    private static long applyImage(NotificationSpec spec, NotificationCompat.Builder builder, Context context) {
+        Bitmap bitmap = getBitmap(context, spec.getImage(), ImageSlot.bigPicture(context));
 
         if (bitmap == null) {
-            return;
+            return 0;
         }
 
         final NotificationCompat.BigPictureStyle bigPictureStyle = new NotificationCompat.BigPictureStyle().bigPicture(bitmap);
 
         builder.setStyle(bigPictureStyle);
 
-        final Object thumbnail = options.opt("thumbnail");
-
-        if (Boolean.TRUE.equals(thumbnail)) {
+        if (spec.isImageAsThumbnail()) {
             builder.setLargeIcon(bitmap); // Set the thumbnail...
             bigPictureStyle.bigLargeIcon(null); // ...which goes away when expanded.
         }
 
+        return bitmap.getByteCount();
     }
 
-    private static void applyBigTextStyle(JSONObject options, NotificationCompat.Builder builder) {
+    private static void applyBigTextStyle(NotificationSpec spec, NotificationCompat.Builder builder) {
         // set big text style (adds an 'expansion arrow' to the notification)
-        if (options.optBoolean("bigTextStyle")) {
+        if (spec.isBigTextStyle()) {
             final NotificationCompat.BigTextStyle bigTextStyle = new NotificationCompat.BigTextStyle();
-            bigTextStyle.setBigContentTitle(options.optString("title"));
-            bigTextStyle.bigText(options.optString("body"));
+            bigTextStyle.setBigContentTitle(spec.getTitle() != null ? spec.getTitle() : "");
+            bigTextStyle.bigText(spec.getBody() != null ? spec.getBody() : "");
             builder.setStyle(bigTextStyle);
         }
     }
 
-    private static void applyGroup(JSONObject options, NotificationCompat.Builder builder) {
-        JSONArray groupedMessages = options.optJSONArray("groupedMessages");
+    private static void applyGroup(NotificationSpec spec, NotificationCompat.Builder builder, Context context) {
+        final String[] groupedMessages = spec.getGroupedMessages();
 
         if (groupedMessages == null) {
             return;
@@ -152,35 +172,38 @@ public final class Builder {
 
         // Sets a title for the Inbox in expanded layout
         // TODO: Is this needed? Should we add a different option for it (bigTitle)?
-        inboxStyle.setBigContentTitle(options.optString("title", null));
-        inboxStyle.setSummaryText(options.optString("groupSummary", null));
+        inboxStyle.setBigContentTitle(spec.getTitle());
 
-        int messagesToDisplay = Math.min(groupedMessages.length(), 5);
+        int messagesToDisplay = Math.min(groupedMessages.length, MAX_GROUPED_MESSAGES);
 
         for (int i = 0; i < messagesToDisplay; ++i) {
-            try {
-                inboxStyle.addLine(groupedMessages.getString(i));
-            } catch (JSONException e) {
-                Log.e(TAG, "Error parsing message at index " + i, e);
-            }
+            inboxStyle.addLine(groupedMessages[i]);
+        }
 
+        final int hidden = groupedMessages.length - messagesToDisplay;
+
+        if (spec.getGroupSummary() != null || hidden == 0) {
+            inboxStyle.setSummaryText(spec.getGroupSummary());
+        } else {
+            // Tell how many didn't fit:
+            inboxStyle.setSummaryText(context.getResources().getQuantityString(R.plurals.local_notifications_more, hidden, hidden));
         }
 
-        builder
-            .setGroup("myGroup") // TODO not sure this needs to be configurable
-            .setStyle(inboxStyle);
+        // The group (if any) is options.groupKey, set for every style:
+        builder.setStyle(inboxStyle);
     }
 
 
     // Notification click and cancel handlers:
 
     /**
-     * Add the intent that handles the event when the notification is clicked (which should launch the app).
+     * Add the intent that handles the event when the notification is clicked (which should launch the app). Also used
+     * by the group summaries, which open the app as their latest notification does.
      */
-    private static void applyTapReceiver(JSONObject options, NotificationCompat.Builder builder, Context context, int notificationID) {
+    static void applyTapReceiver(NotificationSpec spec, NotificationCompat.Builder builder, Context context, int notificationID) {
         final Intent intent = new Intent(context, NotificationActionReceiver.class)
                 .putExtra(NOTIFICATION_ID, notificationID)
-                .putExtra("NOTIFICATION_LAUNCH", options.optBoolean("launch", true))
+                .putExtra("NOTIFICATION_LAUNCH", spec.isLaunch())
                 .setAction(Action.CLICK_ACTION_ID)
                 .setFlags(Intent.FLAG_ACTIVITY_NO_HISTORY);
 
@@ -208,8 +231,8 @@ public final class Builder {
         ));
     }
 
-    private static void applyActions(JSONObject options, NotificationCompat.Builder builder, Context context, int notificationID) {
-        Action[] actions = getActions(options, context);
+    private static void applyActions(NotificationSpec spec, NotificationCompat.Builder builder, Context context, int notificationID) {
+        Action[] actions = getActions(spec, context);
 
         if (actions == null || actions.length == 0) {
             return;
@@ -220,7 +243,7 @@ public final class Builder {
             btn = new NotificationCompat.Action.Builder(
                     action.getIcon(),
                     action.getTitle(),
-                    getPendingIntentForAction(options, context, action, notificationID));
+                    getPendingIntentForAction(spec, context, action, notificationID));
 
             if (action.isWithInput()) {
                 Log.d(TAG, "applyActions, isWithInput");
@@ -233,31 +256,17 @@ public final class Builder {
         }
     }
 
-    private static Action[] getActions(JSONObject options, Context context) {
-        Object value = options.opt("actions");
-        String groupId = null;
-        JSONArray actions = null;
-        ActionGroup group = null;
-
-        if (value instanceof String) {
-            groupId = (String) value;
-        } else if (value instanceof JSONArray) {
-            actions = (JSONArray) value;
-        }
-
-        if (groupId != null) {
-            group = ActionGroup.lookup(groupId);
-        } else if (actions != null && actions.length() > 0) {
-            group = ActionGroup.parse(context, actions);
-        }
+    private static Action[] getActions(NotificationSpec spec, Context context) {
+        final String groupId = spec.getActionGroupId();
+        final ActionGroup group = groupId != null ? ActionGroup.lookup(context, groupId) : spec.getActionGroup(context);
 
         return (group != null) ? group.getActions() : null;
     }
 
-    private static PendingIntent getPendingIntentForAction(JSONObject options, Context context, Action action, int notificationID) {
+    private static PendingIntent getPendingIntentForAction(NotificationSpec spec, Context context, Action action, int notificationID) {
         Log.d(TAG, "getPendingIntentForAction action.id " + action.getId() + ", action.isLaunchingApp(): " + action.isLaunchingApp());
         Intent intent = new Intent(context, NotificationActionReceiver.class)
-                .putExtra(NOTIFICATION_ID, options.optInt("id", 0))
+                .putExtra(NOTIFICATION_ID, spec.getId())
                 // TODO see https://github.com/katzer/cordova-plugin-local-notifications/blob/ca1374325bb27ec983332d55dcb6975d929bca4b/src/android/notification/Builder.java#L396
                 .putExtra("NOTIFICATION_LAUNCH", action.isLaunchingApp())
                 .setAction(action.getId())
@@ -268,36 +277,85 @@ public final class Builder {
 
     // Utility methods:
 
-    private static @Nullable Bitmap getBitmap(Context context, String src) {
-        if (src.indexOf("res://") == 0) {
-            final int resourceId = context.getResources().getIdentifier(src.substring(6), "drawable", context.getApplicationInfo().packageName);
+    /**
+     * Get the bitmap for the given source, sized for the given slot, from the {@link BitmapCache} if possible.
+     */
+    private static @Nullable Bitmap getBitmap(Context context, String src, ImageSlot slot) {
+        final BitmapCache cache = BitmapCache.get(context);
+        Bitmap bitmap = cache.get(src, slot);
+
+        if (bitmap == null) {
+            bitmap = decodeBitmap(context, src, slot);
 
-            return resourceId == 0 ? null : android.graphics.BitmapFactory.decodeResource(context.getResources(), resourceId);
-        } else if (src.indexOf("http") == 0) {
-            try {
-                return new DownloadFileFromUrl(src).execute().get();
-            } catch (InterruptedException | ExecutionException e) {
-                return null;
+            if (bitmap != null) {
+                // Resources are local already, only downloads are worth keeping on disk at the size they're shown at:
+                cache.put(src, slot, bitmap, ImageFetcher.isRemote(src));
             }
         }
 
+        return bitmap;
+    }
+
+    private static @Nullable Bitmap decodeBitmap(Context context, String src, ImageSlot slot) {
+        if (src.indexOf(ResourceCache.RESOURCE_PREFIX) == 0) {
+            final int resourceId = ResourceCache.getDrawable(context, src);
+
+            return resourceId == 0 ? null : slot.decodeResource(context.getResources(), resourceId);
+        } else if (ImageFetcher.isRemote(src)) {
+            // Prefetched when the notification was scheduled (see ImageFetcher). If it's not there yet, the notification
+            // goes without it for now rather than waiting for the download (see repostWhenFetched):
+            final File file = ImageFetcher.get(context).get(src);
+
+            return file == null ? null : slot.decodeFile(file.getPath());
+        }
+
         return null;
     }
 
-    private static boolean shouldEnableNotificationLed(JSONObject options) {
-        return options.has("notificationLed");
+    /**
+     * If the given remote image isn't downloaded yet, download it and then post the notification again with it,
+     * silently and only if it's still showing.
+     */
+    private static void repostWhenFetched(final Context context, final int notificationID, final String channelID, @Nullable final String src) {
+        if (!ImageFetcher.isRemote(src)) {
+            return;
+        }
+
+        final ImageFetcher fetcher = ImageFetcher.get(context);
+
+        if (fetcher.get(src) != null) {
+            return;
+        }
+
+        fetcher.fetch(src, new Runnable() {
+            @Override
+            public void run() {
+                final NotificationSpec spec = Store.getSpec(context, notificationID);
+
+                // Unless the download failed, or the notification was removed in the meantime:
+                if (fetcher.get(src) == null || spec == null || !isShowing(context, notificationID)) {
+                    return;
+                }
+
+                final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+                final Notification notification = newBuilder(spec, context, notificationID, channelID)
+                        .setOnlyAlertOnce(true)
+                        .build();
+
+                NotificationPoster.get().post(notificationManager, notificationID, notification);
+            }
+        });
     }
 
-    private static int getLedColor(JSONObject options) {
-        Object notificationLed = options.opt("notificationLed");
+    private static boolean isShowing(Context context, int notificationID) {
+        final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
 
-        if (Boolean.TRUE.equals(notificationLed)) {
-            return DEFAULT_NOTIFICATION_COLOR;
-        } else if (notificationLed instanceof Integer) {
-            return (int) notificationLed;
-        } else {
-            Log.e(TAG, "Unable to parse option.notificationLed, using default notification color");
-            return DEFAULT_NOTIFICATION_COLOR;
+        for (StatusBarNotification statusBarNotification : notificationManager.getActiveNotifications()) {
+            if (statusBarNotification.getId() == notificationID && statusBarNotification.getTag() == null) {
+                return true;
+            }
         }
+
+        return false;
     }
 }
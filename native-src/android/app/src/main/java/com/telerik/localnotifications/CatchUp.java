@@ -0,0 +1,170 @@
+package com.telerik.localnotifications;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import androidx.core.app.NotificationCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the alertWhileIdle notifications missed while the device was off and delivers them together,
+ * following each notification's catch up policy (options.catchUp):
+ * - once (default): show the notification once, no matter how many occurrences were missed.
+ * - summary: show it once, along with the number of missed occurrences.
+ * - drop: only show it if it was missed less than options.catchUpThreshold ms ago, otherwise drop it.
+ *
+ * When more than one notification is missed they are collapsed into a single notification carrying how many were
+ * missed, which lists them, instead of a burst of separate notifications. Only the first few notifications with the
+ * once or drop policy are still posted on their own, grouped under it (and with a single alert); the ones with the
+ * summary policy only ever show up in it.
+ */
+final class CatchUp {
+
+  private static final String TAG = "CatchUp";
+
+  static final String GROUP = "com.telerik.localnotifications.CATCH_UP";
+
+  private static final int MAX_SUMMARY_LINES = 5;
+  // Missed notifications posted on their own, which along with the collapsed one fit NotificationPoster's burst:
+  private static final int MAX_CHILDREN = 4;
+
+  private final List<NotificationSpec> specs = new ArrayList<NotificationSpec>();
+  private final List<Long> counts = new ArrayList<Long>();
+  private long missed;
+
+  /**
+   * Add a missed notification, unless its policy drops it.
+   *
+   * @param spec
+   * @param lastFired When its alarm last fired, or a negative value if it never did
+   * @param now
+   * @return Whether it will be posted
+   */
+  boolean add(NotificationSpec spec, long lastFired, long now) {
+    final Recurrence recurrence = spec.getRecurrence();
+    final long missedAt = recurrence != null ? recurrence.lastOccurrenceAtOrBefore(now) : spec.getAtTime();
+
+    if (NotificationSpec.CATCH_UP_DROP.equals(spec.getCatchUp()) && now - missedAt > spec.getCatchUpThreshold()) {
+      Log.d(TAG, "Dropping notification " + spec.getId() + " missed at " + missedAt);
+      return false;
+    }
+
+    final long count = recurrence != null ? Math.max(1, recurrence.countBetween(lastFired, now)) : 1;
+
+    specs.add(spec);
+    counts.add(count);
+    missed += count;
+    return true;
+  }
+
+  int size() {
+    return specs.size();
+  }
+
+  /**
+   * Post the collected notifications and record them as fired.
+   *
+   * @param context
+   * @param notificationManager
+   */
+  void post(Context context, NotificationManager notificationManager) {
+    final int size = specs.size();
+
+    if (size == 0) {
+      return;
+    }
+
+    if (size == 1) {
+      postChild(context, notificationManager, 0, false);
+    } else {
+      int children = 0;
+      for (int i = 0; i < size; i++) {
+        if (children < MAX_CHILDREN && !NotificationSpec.CATCH_UP_SUMMARY.equals(specs.get(i).getCatchUp())) {
+          postChild(context, notificationManager, i, true);
+          children++;
+        } else {
+          // Only in the collapsed notification:
+          Store.registerAlarmFired(context, specs.get(i).getId());
+        }
+      }
+
+      postCollapsed(context, notificationManager, children > 0);
+    }
+
+    Log.i(TAG, "Posted " + size + " missed notifications (" + missed + " occurrences)");
+    specs.clear();
+    counts.clear();
+    missed = 0;
+  }
+
+  private void postChild(Context context, NotificationManager notificationManager, int i, boolean grouped) {
+    final NotificationSpec spec = specs.get(i);
+    final int id = spec.getId();
+    final long count = counts.get(i);
+
+    try {
+      final NotificationCompat.Builder builder = Builder.newBuilder(spec, context, id, spec.getChannel());
+
+      if (NotificationSpec.CATCH_UP_SUMMARY.equals(spec.getCatchUp()) && count > 1) {
+        builder
+            .setNumber((int) Math.min(count, Integer.MAX_VALUE))
+            .setSubText(context.getResources().getQuantityString(R.plurals.local_notifications_missed, (int) count, (int) count));
+      }
+
+      if (grouped) {
+        builder
+            .setGroup(GROUP)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY);
+      }
+
+      NotificationPoster.get().post(notificationManager, id, builder.build());
+      Store.registerAlarmFired(context, id);
+    } catch (Throwable t) {
+      Log.e(TAG, "Missed notification " + id + " could not be created!" + t.getMessage(), t);
+    }
+  }
+
+  /**
+   * Post the notification that stands for all the missed ones, as the summary of the ones posted on their own if any.
+   */
+  private void postCollapsed(Context context, NotificationManager notificationManager, boolean summary) {
+    final NotificationSpec first = specs.get(0);
+    final int total = (int) Math.min(missed, Integer.MAX_VALUE);
+    final String title = context.getResources().getQuantityString(R.plurals.local_notifications_missed_summary, total, total);
+    final NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+
+    for (int i = 0; i < Math.min(specs.size(), MAX_SUMMARY_LINES); i++) {
+      final long count = counts.get(i);
+      final String line = specs.get(i).getTitle() != null ? specs.get(i).getTitle() : "";
+      inboxStyle.addLine(count > 1
+          ? line + " (" + context.getResources().getQuantityString(R.plurals.local_notifications_missed, (int) count, (int) count) + ")"
+          : line);
+    }
+
+    final int hidden = specs.size() - MAX_SUMMARY_LINES;
+    if (hidden > 0) {
+      inboxStyle.setSummaryText(context.getResources().getQuantityString(R.plurals.local_notifications_more, hidden, hidden));
+    }
+
+    final NotificationCompat.Builder builder = android.os.Build.VERSION.SDK_INT >= 26
+        ? new NotificationCompat.Builder(context, first.getChannel())
+        : new NotificationCompat.Builder(context);
+
+    builder
+        .setContentTitle(title)
+        .setContentText(first.getTitle())
+        .setNumber(total)
+        .setSmallIcon(first.getIcon())
+        .setColor(first.getColor())
+        .setStyle(inboxStyle)
+        .setGroup(GROUP)
+        // A summary without children isn't shown, so it's only one when some were posted on their own:
+        .setGroupSummary(summary)
+        .setAutoCancel(true);
+
+    // The tag keeps it from replacing a notification that happens to use the same id:
+    NotificationPoster.get().post(notificationManager, GROUP, 0, builder.build());
+  }
+}
@@ -0,0 +1,156 @@
+package com.telerik.localnotifications;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Notification channels (Android 8+) known to exist, so building a notification doesn't need to ask the system.
+ *
+ * The ids of the app's channels are loaded with a single call the first time a notification is built in the process,
+ * and kept in memory from then on. Channels can be declared up front with their settings (importance, LED, sound and
+ * vibration), which are all created in one call. Otherwise a channel is still created from the first notification
+ * that uses it, as before.
+ *
+ * Once a channel exists its settings belong to the user: declaring it again only updates its name and description.
+ */
+final class ChannelRegistry {
+
+  private static final String TAG = "ChannelRegistry";
+
+  private static final Set<String> known = new HashSet<>();
+  private static boolean loaded;
+
+  private ChannelRegistry() {
+  }
+
+  /**
+   * Make sure the given channel exists, creating it from the given notification's settings if it doesn't.
+   *
+   * @param context
+   * @param spec Notification that uses the channel
+   * @param channelID
+   */
+  static void ensure(Context context, NotificationSpec spec, String channelID) {
+    if (SDK_INT < 26) {
+      return;
+    }
+
+    synchronized (known) {
+      if (known.contains(channelID)) {
+        return;
+      }
+
+      final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+      if (notificationManager == null) {
+        return;
+      }
+
+      if (!loaded) {
+        for (NotificationChannel channel : notificationManager.getNotificationChannels()) {
+          known.add(channel.getId());
+        }
+
+        loaded = true;
+
+        if (known.contains(channelID)) {
+          return;
+        }
+      }
+
+      final NotificationChannel channel = new NotificationChannel(channelID, channelID, NotificationManager.IMPORTANCE_HIGH);
+      if (spec.hasNotificationLed()) {
+        channel.enableLights(true);
+        channel.setLightColor(spec.getLedColor());
+      }
+      notificationManager.createNotificationChannel(channel);
+      known.add(channelID);
+
+      Log.d(TAG, "Created channel " + channelID);
+    }
+  }
+
+  /**
+   * Create (or update) the given channels, all at once.
+   *
+   * @param context
+   * @param channels [{ id, name, description, importance, notificationLed, sound, vibrate }]
+   * @return Number of channels declared
+   */
+  static int declare(Context context, JSONArray channels) throws JSONException {
+    if (SDK_INT < 26) {
+      return 0;
+    }
+
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+    if (notificationManager == null) {
+      return 0;
+    }
+
+    final List<NotificationChannel> list = new ArrayList<>(channels.length());
+    for (int i = 0; i < channels.length(); i++) {
+      list.add(parseChannel(channels.getJSONObject(i)));
+    }
+
+    notificationManager.createNotificationChannels(list);
+
+    synchronized (known) {
+      for (NotificationChannel channel : list) {
+        known.add(channel.getId());
+      }
+    }
+
+    Log.d(TAG, "Declared " + list.size() + " channels");
+    return list.size();
+  }
+
+  private static NotificationChannel parseChannel(JSONObject options) throws JSONException {
+    final String id = options.getString("id");
+    final NotificationChannel channel = new NotificationChannel(id, options.optString("name", id), parseImportance(options.optString("importance")));
+
+    if (options.has("description")) {
+      channel.setDescription(options.optString("description"));
+    }
+
+    if (NotificationSpec.isLedEnabled(options.opt("notificationLed"))) {
+      channel.enableLights(true);
+      channel.setLightColor(NotificationSpec.parseLedColor(options.opt("notificationLed")));
+    }
+
+    if (!options.optBoolean("sound", true)) {
+      channel.setSound(null, null);
+    }
+
+    channel.enableVibration(options.optBoolean("vibrate", false));
+
+    return channel;
+  }
+
+  private static int parseImportance(String importance) {
+    switch (importance) {
+      case "min":
+        return NotificationManager.IMPORTANCE_MIN;
+      case "low":
+        return NotificationManager.IMPORTANCE_LOW;
+      case "default":
+        return NotificationManager.IMPORTANCE_DEFAULT;
+      default:
+        // Same as the channels created from a notification:
+        return NotificationManager.IMPORTANCE_HIGH;
+    }
+  }
+}
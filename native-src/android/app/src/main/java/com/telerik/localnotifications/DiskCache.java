@@ -0,0 +1,154 @@
+package com.telerik.localnotifications;
+
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Size-bounded directory of files named after the hash of their key.
+ *
+ * Entries are written to a temporary file and renamed into place, so a reader never sees a partial one. Reading an
+ * entry touches its modification time, and once the directory grows over its limit the least recently used entries
+ * are deleted.
+ */
+final class DiskCache {
+
+  private static final String TAG = "DiskCache";
+
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File dir;
+  private final long maxBytes;
+
+  DiskCache(File dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return The file of the given entry, or null if it's not cached
+   */
+  @Nullable File get(String key) {
+    final File file = file(key);
+
+    if (!file.isFile()) {
+      return null;
+    }
+
+    file.setLastModified(System.currentTimeMillis());
+    return file;
+  }
+
+  /**
+   * @return A new temporary file to write an entry to, before {@link #commit}ting it
+   */
+  File newTempFile() throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir);
+    }
+
+    return File.createTempFile("entry", TMP_SUFFIX, dir);
+  }
+
+  /**
+   * Move the given temporary file into place as the given entry, replacing any previous one.
+   *
+   * @return The entry's file
+   */
+  File commit(File tmp, String key) throws IOException {
+    final File file = file(key);
+
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      throw new IOException("Unable to move " + tmp + " to " + file);
+    }
+
+    trim();
+    return file;
+  }
+
+  void remove(String key) {
+    file(key).delete();
+  }
+
+  /**
+   * Hash the given parts into a key that is safe to use as a file name.
+   */
+  static String key(String... parts) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      for (String part : parts) {
+        digest.update(part.getBytes(UTF_8));
+        digest.update((byte) 0);
+      }
+
+      final StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Android device has SHA-1:
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private File file(String key) {
+    return new File(dir, key);
+  }
+
+  private void trim() {
+    final File[] files = dir.listFiles();
+
+    if (files == null) {
+      return;
+    }
+
+    long size = 0;
+    for (File file : files) {
+      size += file.length();
+    }
+
+    if (size <= maxBytes) {
+      return;
+    }
+
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        final long am = a.lastModified();
+        final long bm = b.lastModified();
+        return am < bm ? -1 : (am == bm ? 0 : 1);
+      }
+    });
+
+    int deleted = 0;
+    for (File file : files) {
+      if (size <= maxBytes) {
+        break;
+      }
+
+      // Another thread may still be writing a temporary file, unless it was left behind a while ago:
+      if (file.getName().endsWith(TMP_SUFFIX) && System.currentTimeMillis() - file.lastModified() < 60 * 1000) {
+        continue;
+      }
+
+      final long length = file.length();
+      if (file.delete()) {
+        size -= length;
+        deleted++;
+      }
+    }
+
+    Log.d(TAG, "Trimmed " + deleted + " entries from " + dir);
+  }
+}
@@ -0,0 +1,247 @@
+package com.telerik.localnotifications;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Summaries of the notifications that share a group key (options.groupKey).
+ *
+ * Without a summary, Android bundles an app's notifications as it sees fit. Instead, once a group has enough
+ * notifications showing, the plugin posts a summary for it, listing the latest ones. The children of every group are
+ * kept track of in memory as they are posted and removed (tapped, cleared or cancelled), so the summary is updated
+ * from that rather than by looking them all up. After the process is restarted, the groups are picked up again from
+ * the notifications that are still showing, with a single call.
+ */
+final class GroupSummaries {
+
+  private static final String TAG = "GroupSummaries";
+
+  // Summaries are posted with this tag, and the hash of their group key as id:
+  static final String SUMMARY_TAG = "com.telerik.localnotifications.GROUP_SUMMARY";
+
+  static final int DEFAULT_THRESHOLD = 4;
+
+  private static final int MAX_SUMMARY_LINES = 5;
+
+  private static GroupSummaries instance;
+
+  // Notifications showing in each group, by group key:
+  private final Map<String, Group> groups = new HashMap<String, Group>();
+  // Group key of each notification showing in a group, by id:
+  private final Map<Integer, String> groupKeys = new HashMap<Integer, String>();
+  private boolean loaded;
+
+  private static final class Group {
+    // Titles of the children, by id, in the order they were posted (oldest first):
+    final LinkedHashMap<Integer, String> children = new LinkedHashMap<Integer, String>();
+    // Options of the latest child, which the summary takes its channel, icon and color from:
+    @Nullable NotificationSpec latest;
+    boolean summarized;
+  }
+
+  static synchronized GroupSummaries get() {
+    if (instance == null) {
+      instance = new GroupSummaries();
+    }
+
+    return instance;
+  }
+
+  private GroupSummaries() {
+  }
+
+  /**
+   * Record that the given notification was posted (or updated), and update the summary of its group.
+   *
+   * @param context
+   * @param notificationManager
+   * @param spec
+   */
+  synchronized void posted(Context context, NotificationManager notificationManager, NotificationSpec spec) {
+    load(notificationManager);
+
+    final int id = spec.getId();
+    final String groupKey = spec.getGroupKey();
+    final String previousKey = groupKeys.get(id);
+
+    if (previousKey != null && !previousKey.equals(groupKey)) {
+      // It moved to another group, or out of them:
+      removed(context, notificationManager, id);
+    }
+
+    if (groupKey == null) {
+      return;
+    }
+
+    Group group = groups.get(groupKey);
+    if (group == null) {
+      group = new Group();
+      groups.put(groupKey, group);
+    }
+
+    // Moved to the end, as it's the latest now:
+    group.children.remove(id);
+    group.children.put(id, spec.getTitle() != null ? spec.getTitle() : "");
+    group.latest = spec;
+    groupKeys.put(id, groupKey);
+
+    refresh(context, notificationManager, groupKey, group);
+  }
+
+  /**
+   * Record that the given notification isn't showing anymore, and update the summary of its group.
+   *
+   * @param context
+   * @param notificationManager
+   * @param id
+   */
+  synchronized void removed(Context context, NotificationManager notificationManager, int id) {
+    removed(context, notificationManager, new int[]{ id });
+  }
+
+  /**
+   * Same as above for several notifications (ie. a bulk cancel), updating the summary of each group they were in once.
+   *
+   * @param context
+   * @param notificationManager
+   * @param ids
+   */
+  synchronized void removed(Context context, NotificationManager notificationManager, int[] ids) {
+    load(notificationManager);
+
+    final Set<String> affected = new LinkedHashSet<String>();
+
+    for (int id : ids) {
+      final String groupKey = groupKeys.remove(id);
+
+      if (groupKey != null) {
+        groups.get(groupKey).children.remove(id);
+        affected.add(groupKey);
+      }
+    }
+
+    for (String groupKey : affected) {
+      final Group group = groups.get(groupKey);
+
+      refresh(context, notificationManager, groupKey, group);
+
+      if (group.children.isEmpty()) {
+        groups.remove(groupKey);
+      }
+    }
+  }
+
+  /**
+   * Post, update or cancel the summary of the given group, depending on how many children it has.
+   */
+  private void refresh(Context context, NotificationManager notificationManager, String groupKey, Group group) {
+    final int threshold = PluginConfig.getGroupSummaryThreshold(context);
+
+    if (threshold <= 0 || group.children.size() < threshold) {
+      if (group.summarized) {
+        NotificationPoster.get().cancel(SUMMARY_TAG, groupKey.hashCode());
+        notificationManager.cancel(SUMMARY_TAG, groupKey.hashCode());
+        group.summarized = false;
+      }
+
+      return;
+    }
+
+    NotificationSpec latest = group.latest;
+    if (latest == null) {
+      // Picked up from the notifications showing, so look one of them up:
+      final int anyId = group.children.keySet().iterator().next();
+      latest = group.latest = Store.getSpec(context, anyId);
+    }
+
+    if (latest == null) {
+      Log.w(TAG, "No options to build the summary of " + groupKey + " with");
+      return;
+    }
+
+    final int count = group.children.size();
+    final String title = context.getResources().getQuantityString(R.plurals.local_notifications_group_summary, count, count);
+    final NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle()
+        .setBigContentTitle(title)
+        .setSummaryText(groupKey);
+
+    // Latest first:
+    final List<String> titles = new ArrayList<String>(group.children.values());
+    for (int i = titles.size() - 1; i >= Math.max(titles.size() - MAX_SUMMARY_LINES, 0); i--) {
+      inboxStyle.addLine(titles.get(i));
+    }
+
+    final NotificationCompat.Builder builder = android.os.Build.VERSION.SDK_INT >= 26
+        ? new NotificationCompat.Builder(context, latest.getChannel())
+        : new NotificationCompat.Builder(context);
+
+    builder
+        .setContentTitle(title)
+        .setSmallIcon(latest.getIcon())
+        .setColor(latest.getColor())
+        .setStyle(inboxStyle)
+        .setGroup(groupKey)
+        .setGroupSummary(true)
+        // The children alert, the summary doesn't have to when it's updated:
+        .setOnlyAlertOnce(true)
+        .setAutoCancel(true);
+
+    // Tapping it opens the app, as its latest notification does:
+    Builder.applyTapReceiver(latest, builder, context, latest.getId());
+
+    NotificationPoster.get().post(notificationManager, SUMMARY_TAG, groupKey.hashCode(), builder.build());
+    group.summarized = true;
+  }
+
+  /**
+   * Pick up the groups from the notifications showing, the first time they're needed in this process.
+   */
+  private void load(NotificationManager notificationManager) {
+    if (loaded) {
+      return;
+    }
+
+    loaded = true;
+
+    try {
+      for (StatusBarNotification statusBarNotification : notificationManager.getActiveNotifications()) {
+        final Notification notification = statusBarNotification.getNotification();
+        final String groupKey = notification.getGroup();
+
+        // The missed notifications have a summary of their own (see CatchUp):
+        if (groupKey == null || groupKey.equals(CatchUp.GROUP)) {
+          continue;
+        }
+
+        Group group = groups.get(groupKey);
+        if (group == null) {
+          group = new Group();
+          groups.put(groupKey, group);
+        }
+
+        if ((notification.flags & Notification.FLAG_GROUP_SUMMARY) != 0) {
+          group.summarized = SUMMARY_TAG.equals(statusBarNotification.getTag());
+        } else if (statusBarNotification.getTag() == null) {
+          final CharSequence title = notification.extras.getCharSequence(Notification.EXTRA_TITLE);
+          group.children.put(statusBarNotification.getId(), title != null ? title.toString() : "");
+          groupKeys.put(statusBarNotification.getId(), groupKey);
+        }
+      }
+    } catch (Throwable t) {
+      Log.e(TAG, "Error loading the notifications showing: " + t.getMessage(), t);
+    }
+  }
+}
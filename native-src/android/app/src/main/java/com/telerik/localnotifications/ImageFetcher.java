@@ -0,0 +1,353 @@
+package com.telerik.localnotifications;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches remote notification images into a disk cache (in the app's cache directory).
+ *
+ * The images of a scheduled notification are prefetched when it's scheduled rather than when it fires: by then the
+ * device may be dozing without network, and a download would stall the receiver. Building the notification then only
+ * needs a local decode. Building never waits for a download: an image that isn't here yet is left out, and the
+ * notification is posted again once it's fetched.
+ *
+ * Fetches run on their own small pool with connect and read timeouts, so a slow host can't hold up the rest. Requests
+ * for a URL that is already being fetched share that fetch. An image that is cached already is revalidated with its
+ * ETag / Last-Modified, so an unchanged one isn't downloaded again, and a changed one replaces its decoded bitmaps in
+ * the {@link BitmapCache}.
+ */
+final class ImageFetcher {
+
+  private static final String TAG = "ImageFetcher";
+
+  private static final String DIR = "notification-downloads";
+  private static final long DISK_MAX_BYTES = 20 * 1024 * 1024;
+
+  private static final int MAX_CONCURRENT = 2;
+  private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+  private static final int READ_TIMEOUT_MS = 15 * 1000;
+  private static final String VALIDATORS = "validators";
+  private static final String ETAG = "etag";
+  private static final String LAST_MODIFIED = "lastModified";
+
+  private static ImageFetcher instance;
+
+  private final Context context;
+  private final DiskCache disk;
+  private final ThreadPoolExecutor executor;
+  private final Map<String, Future<File>> inFlight = new HashMap<>();
+  // What to run once each fetch in flight is done, by URL:
+  private final Map<String, List<Runnable>> callbacks = new HashMap<>();
+
+  private int downloaded;
+  private int notModified;
+  private int shared;
+  private int failed;
+
+  static synchronized ImageFetcher get(Context context) {
+    if (instance == null) {
+      final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+      instance = new ImageFetcher(appContext, new File(appContext.getCacheDir(), DIR));
+    }
+
+    return instance;
+  }
+
+  private ImageFetcher(Context context, File dir) {
+    this.context = context;
+    disk = new DiskCache(dir, DISK_MAX_BYTES);
+
+    final AtomicInteger threads = new AtomicInteger();
+    executor = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "ImageFetcher-" + threads.incrementAndGet());
+      }
+    });
+    // Nothing to fetch most of the time:
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Fetch the remote images (image and thumbnail) of a notification that fires later, in the background.
+   *
+   * @param context
+   * @param spec
+   */
+  static void prefetch(Context context, NotificationSpec spec) {
+    if (spec.getAtTime() == 0) {
+      // Shown right away, there's nothing to get ahead of:
+      return;
+    }
+
+    if (isRemote(spec.getImage())) {
+      get(context).fetch(spec.getImage());
+    }
+
+    if (isRemote(spec.getThumbnail())) {
+      get(context).fetch(spec.getThumbnail());
+    }
+  }
+
+  static boolean isRemote(@Nullable String src) {
+    return src != null && src.indexOf("http") == 0;
+  }
+
+  /**
+   * @return The cached file, or null if it hasn't been (or is being) fetched
+   */
+  @Nullable File get(String url) {
+    return disk.get(DiskCache.key(url));
+  }
+
+  /**
+   * Fetch (or revalidate) the given image in the background, or join the fetch already running for it.
+   *
+   * @return The cached file once fetched, or null if it couldn't be
+   */
+  synchronized Future<File> fetch(final String url) {
+    final Future<File> running = inFlight.get(url);
+
+    // A fetch that is done but hasn't run done() yet has nothing left to share:
+    if (running != null && !running.isDone()) {
+      shared++;
+      return running;
+    }
+
+    final FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+      @Override
+      public File call() {
+        try {
+          return download(url);
+        } catch (Throwable t) {
+          Log.e(TAG, "Error fetching " + url + ": " + t.getMessage(), t);
+          count(0, 0, 1);
+          // A stale image is better than none:
+          return get(url);
+        }
+      }
+    }) {
+      @Override
+      protected void done() {
+        final List<Runnable> then;
+        synchronized (ImageFetcher.this) {
+          if (inFlight.get(url) != this) {
+            // A newer fetch of the same image took over, and its callbacks with it:
+            return;
+          }
+
+          inFlight.remove(url);
+          then = callbacks.remove(url);
+        }
+
+        if (then == null) {
+          return;
+        }
+
+        for (Runnable callback : then) {
+          try {
+            callback.run();
+          } catch (Throwable t) {
+            Log.e(TAG, "Error after fetching " + url + ": " + t.getMessage(), t);
+          }
+        }
+      }
+    };
+
+    inFlight.put(url, task);
+    executor.execute(task);
+    return task;
+  }
+
+  /**
+   * Same as above, then run the given callback (on the fetch thread) whether the image could be fetched or not.
+   */
+  synchronized void fetch(String url, Runnable then) {
+    fetch(url);
+
+    List<Runnable> waiting = callbacks.get(url);
+    if (waiting == null) {
+      waiting = new ArrayList<>();
+      callbacks.put(url, waiting);
+    }
+    waiting.add(then);
+  }
+
+  /**
+   * @return { downloaded, notModified, shared, failed, inFlight }
+   */
+  synchronized JSONObject getStats() {
+    final JSONObject stats = new JSONObject();
+    try {
+      stats.put("downloaded", downloaded)
+          .put("notModified", notModified)
+          .put("shared", shared)
+          .put("failed", failed)
+          .put("inFlight", inFlight.size());
+    } catch (JSONException e) {
+      Log.e(TAG, "Error building image fetch stats" + e.getMessage(), e);
+    }
+    return stats;
+  }
+
+  private @Nullable File download(String url) throws IOException {
+    final String key = DiskCache.key(url);
+    final File cached = disk.get(key);
+    // Without the image itself, its validators are no use:
+    final JSONObject validators = cached == null ? null : readValidators(url);
+
+    final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+
+    try {
+      connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+      connection.setReadTimeout(READ_TIMEOUT_MS);
+      connection.setDoInput(true);
+
+      if (validators != null) {
+        if (validators.has(ETAG)) {
+          connection.setRequestProperty("If-None-Match", validators.optString(ETAG));
+        }
+        if (validators.has(LAST_MODIFIED)) {
+          connection.setRequestProperty("If-Modified-Since", validators.optString(LAST_MODIFIED));
+        }
+      }
+
+      connection.connect();
+
+      final int responseCode = connection.getResponseCode();
+
+      if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+        Log.d(TAG, "Not modified " + url);
+        count(0, 1, 0);
+        return cached;
+      }
+
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        Log.w(TAG, "Unable to fetch " + url + ": HTTP " + responseCode);
+        count(0, 0, 1);
+        return cached;
+      }
+
+      final File tmp = disk.newTempFile();
+      try {
+        copy(connection.getInputStream(), tmp);
+      } catch (IOException e) {
+        tmp.delete();
+        throw e;
+      }
+
+      final File file = disk.commit(tmp, key);
+      writeValidators(url, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+      // The bitmaps decoded from the previous version are stale now:
+      BitmapCache.get(context).invalidate(url);
+      Log.d(TAG, "Fetched " + url);
+      count(1, 0, 0);
+      return file;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private @Nullable JSONObject readValidators(String url) {
+    final File file = disk.get(DiskCache.key(url, VALIDATORS));
+
+    if (file == null) {
+      return null;
+    }
+
+    try {
+      final ByteArrayOutputStream data = new ByteArrayOutputStream();
+      final InputStream in = new FileInputStream(file);
+      try {
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          data.write(buffer, 0, read);
+        }
+      } finally {
+        in.close();
+      }
+      return new JSONObject(data.toString("UTF-8"));
+    } catch (IOException | JSONException e) {
+      Log.e(TAG, "Error reading the validators of " + url + ": " + e.getMessage(), e);
+      return null;
+    }
+  }
+
+  private void writeValidators(String url, @Nullable String etag, @Nullable String lastModified) {
+    final String key = DiskCache.key(url, VALIDATORS);
+
+    if (etag == null && lastModified == null) {
+      // Nothing to revalidate with, so it will be downloaded again next time:
+      disk.remove(key);
+      return;
+    }
+
+    try {
+      final JSONObject validators = new JSONObject();
+      if (etag != null) {
+        validators.put(ETAG, etag);
+      }
+      if (lastModified != null) {
+        validators.put(LAST_MODIFIED, lastModified);
+      }
+
+      final File tmp = disk.newTempFile();
+      final OutputStream out = new FileOutputStream(tmp);
+      try {
+        out.write(validators.toString().getBytes("UTF-8"));
+      } finally {
+        out.close();
+      }
+      disk.commit(tmp, key);
+    } catch (IOException | JSONException e) {
+      Log.e(TAG, "Error writing the validators of " + url + ": " + e.getMessage(), e);
+    }
+  }
+
+  private synchronized void count(int download, int notModifiedResponse, int failure) {
+    downloaded += download;
+    notModified += notModifiedResponse;
+    failed += failure;
+  }
+
+  private static void copy(InputStream in, File file) throws IOException {
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      final byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      out.close();
+      in.close();
+    }
+  }
+}
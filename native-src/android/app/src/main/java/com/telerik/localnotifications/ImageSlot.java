@@ -0,0 +1,117 @@
+package com.telerik.localnotifications;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import androidx.annotation.Nullable;
+import android.util.DisplayMetrics;
+
+/**
+ * Where a notification image is shown (large icon or big picture), which sets the size it's decoded at.
+ *
+ * Images are decoded bounds first, then subsampled (by a power of 2) down to the smallest size that still covers the
+ * slot, so a 4000px photo used as a 64dp large icon doesn't take tens of MB. With reduced colors, images are decoded
+ * as RGB_565 (half the memory of ARGB_8888) unless they need their alpha channel.
+ */
+final class ImageSlot {
+
+  private static final int LARGE_ICON_DP = 64;
+
+  final int width;
+  final int height;
+  final boolean reduced;
+
+  private ImageSlot(int width, int height, boolean reduced) {
+    this.width = width;
+    this.height = height;
+    this.reduced = reduced;
+  }
+
+  /**
+   * The large icon (thumbnail), square.
+   */
+  static ImageSlot largeIcon(Context context) {
+    int size = PluginConfig.getLargeIconSize(context);
+
+    if (size <= 0) {
+      size = Math.round(LARGE_ICON_DP * displayMetrics(context).density);
+    }
+
+    return new ImageSlot(size, size, PluginConfig.isReducedImageColors(context));
+  }
+
+  /**
+   * The expanded picture of the BigPicture style, about twice as wide as it's high.
+   */
+  static ImageSlot bigPicture(Context context) {
+    int width = PluginConfig.getBigPictureWidth(context);
+
+    if (width <= 0) {
+      final DisplayMetrics metrics = displayMetrics(context);
+      width = Math.min(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    return new ImageSlot(width, width / 2, PluginConfig.isReducedImageColors(context));
+  }
+
+  /**
+   * @return Identifies the decoded size and format, as part of a cache key
+   */
+  String key() {
+    return width + "x" + height + (reduced ? "-565" : "");
+  }
+
+  @Nullable Bitmap decodeFile(String path) {
+    final BitmapFactory.Options options = boundsOptions();
+    BitmapFactory.decodeFile(path, options);
+    return BitmapFactory.decodeFile(path, decodeOptions(options));
+  }
+
+  @Nullable Bitmap decodeResource(Resources resources, int id) {
+    final BitmapFactory.Options options = boundsOptions();
+    BitmapFactory.decodeResource(resources, id, options);
+    return BitmapFactory.decodeResource(resources, id, decodeOptions(options));
+  }
+
+  private static BitmapFactory.Options boundsOptions() {
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    return options;
+  }
+
+  /**
+   * @param bounds Options the bounds were decoded with
+   * @return Options to decode the image itself
+   */
+  private BitmapFactory.Options decodeOptions(BitmapFactory.Options bounds) {
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight);
+    if (reduced) {
+      // Only a preference, images with alpha can't be decoded as RGB_565:
+      options.inPreferredConfig = Bitmap.Config.RGB_565;
+    }
+    return options;
+  }
+
+  /**
+   * @return The largest power of 2 that keeps the image at least as big as the slot
+   */
+  int sampleSize(int imageWidth, int imageHeight) {
+    int sampleSize = 1;
+
+    if (imageWidth <= 0 || imageHeight <= 0) {
+      return sampleSize;
+    }
+
+    while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+      sampleSize *= 2;
+    }
+
+    return sampleSize;
+  }
+
+  private static DisplayMetrics displayMetrics(Context context) {
+    return context.getResources().getDisplayMetrics();
+  }
+}
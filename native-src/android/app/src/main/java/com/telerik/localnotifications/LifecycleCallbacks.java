@@ -28,6 +28,9 @@ public class LifecycleCallbacks implements Application.ActivityLifecycleCallback
 
     Log.d("LifecycleCallbacks", "Registering the activity lifecycle callbacks...");
     app.registerActivityLifecycleCallbacks(callbacks);
+
+    // The plugin is being initialized, so notifications (and their icons) are likely to follow:
+    ResourceCache.warmUp(app);
   }
 
   public void onActivityPaused(Activity activity) {
@@ -1,10 +1,22 @@
 package com.telerik.localnotifications;
 
+import android.app.AlarmManager;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
 import android.util.Log;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class LocalNotificationsPlugin {
@@ -66,6 +78,299 @@ public class LocalNotificationsPlugin {
     }
   }
 
+  /**
+   * Schedule all notifications with a single alarm, armed for the earliest one, instead of one alarm per
+   * notification. Existing alarms are moved over to the selected mode. The setting is persisted.
+   *
+   * @param context
+   * @param enabled
+   */
+  public static void setSingleAlarmMode(Context context, boolean enabled) {
+    AlarmScheduler.setEnabled(context, enabled);
+    Store.flush(context);
+  }
+
+  public static boolean isSingleAlarmMode(Context context) {
+    return AlarmScheduler.isEnabled(context);
+  }
+
+  /**
+   * Let the notifications that fire within the same window share a single alarm, delivered in one go (so the later
+   * ones may show up to windowMs early). Pass 0 to give every notification its own alarm again (the default). Applies
+   * to the alarms set from now on. The setting is persisted.
+   *
+   * @param context
+   * @param windowMs Width of the windows in ms
+   */
+  public static void setBatchWindow(Context context, long windowMs) {
+    AlarmBatcher.setWindow(context, windowMs);
+  }
+
+  /**
+   * Only re-arm the nearest alarms after a reboot: at most maxAlarms of them, and/or those due within the horizon.
+   * The rest is armed as they come closer. Pass 0 for both to re-arm everything again (the default).
+   *
+   * @param context
+   * @param maxAlarms Maximum number of alarms to arm at once, 0 for no limit
+   * @param horizonMs How far ahead to arm alarms, 0 for no limit
+   */
+  public static void setLazyRestore(Context context, int maxAlarms, long horizonMs) {
+    RestoreWindow.configure(context, maxAlarms, horizonMs);
+  }
+
+  /**
+   * Get the stats of the last boot restore
+   *
+   * @param context
+   * @return { total, restored, failed, passes, durationMs, finishedAt }, with a cursor instead of finishedAt if
+   * it's still in progress, or an empty object if there was no restore yet
+   */
+  public static JSONObject getRestoreStats(Context context) {
+    final JSONObject stats = PluginConfig.getRestoreStats(context);
+    return stats != null ? stats : new JSONObject();
+  }
+
+  /**
+   * Cancel a notification: its alarm, the notification itself if it's shown, and its stored options.
+   *
+   * @param context
+   * @param id
+   */
+  public static void cancel(Context context, int id) throws JSONException {
+    cancel(context, new int[]{id});
+  }
+
+  /**
+   * Cancel several notifications in one pass, removing them from the store in a single transaction.
+   *
+   * @param context
+   * @param ids
+   * @return { cancelled, durationMs }, where cancelled is the number of ids that were scheduled
+   */
+  public static JSONObject cancel(Context context, int[] ids) throws JSONException {
+    StoreLog.get(context).checkWritable();
+
+    final long start = SystemClock.elapsedRealtime();
+    return cancelled(remove(context, ids), start);
+  }
+
+  /**
+   * Get the ids of the scheduled notifications carrying the given tag (options.tags) or group key (options.groupKey)
+   *
+   * @param context
+   * @param tag
+   * @return
+   */
+  public static int[] getIdsByTag(Context context, String tag) {
+    return Store.getIdsByTag(context, tag);
+  }
+
+  /**
+   * Cancel the notifications carrying the given tag (options.tags) or group key (options.groupKey)
+   *
+   * @param context
+   * @param tag
+   * @return { cancelled, durationMs }
+   */
+  public static JSONObject cancelByTag(Context context, String tag) throws JSONException {
+    StoreLog.get(context).checkWritable();
+
+    final long start = SystemClock.elapsedRealtime();
+    return cancelled(remove(context, Store.getIdsByTag(context, tag)), start);
+  }
+
+  /**
+   * Cancel every notification: their alarms, the shown notifications and the stored options.
+   *
+   * @param context
+   * @return { cancelled, durationMs }
+   */
+  public static JSONObject cancelAll(Context context) throws JSONException {
+    StoreLog.get(context).checkWritable();
+
+    final long start = SystemClock.elapsedRealtime();
+    final int cancelled = remove(context, StoreLog.get(context).ids());
+
+    NotificationPoster.get().cancelAll();
+    ((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE)).cancelAll();
+
+    return cancelled(cancelled, start);
+  }
+
+  /**
+   * @return Number of the given ids that were scheduled
+   */
+  private static int remove(Context context, int[] ids) {
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    final boolean singleAlarm = AlarmScheduler.isEnabled(context);
+
+    for (int id : ids) {
+      if (!singleAlarm) {
+        final PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, NotificationAlarmReceiver.getAlarmIntent(context, id), PendingIntent.FLAG_NO_CREATE);
+        if (pendingIntent != null) {
+          alarmManager.cancel(pendingIntent);
+          pendingIntent.cancel();
+        }
+      }
+
+      NotificationPoster.get().cancel(id);
+      NotificationUpdater.get().forget(id);
+      notificationManager.cancel(id);
+    }
+
+    // Each group they were in is updated once:
+    GroupSummaries.get().removed(context, notificationManager, ids);
+
+    final int cancelled = Store.removeAll(context, ids);
+
+    if (singleAlarm) {
+      // Move the alarm on to whatever is left:
+      AlarmScheduler.arm(context, alarmManager);
+    }
+
+    return cancelled;
+  }
+
+  private static JSONObject cancelled(int cancelled, long start) throws JSONException {
+    final long duration = SystemClock.elapsedRealtime() - start;
+    Log.i(TAG, "Cancelled " + cancelled + " notifications in " + duration + "ms");
+
+    return new JSONObject()
+        .put("cancelled", cancelled)
+        .put("durationMs", duration);
+  }
+
+  /**
+   * Get the notification posting statistics (see NotificationPoster), for diagnostics
+   *
+   * @return { posted, coalesced, dropped, pending }
+   */
+  public static JSONObject getPostStats() {
+    return NotificationPoster.get().getStats();
+  }
+
+  /**
+   * Update some options of an existing notification, ie. its progress (options.progress, progressMax and
+   * progressIndeterminate). A notification that is due is shown again, unless nothing it shows changed, and one that
+   * is due later is rescheduled. Updates of the progress alone are throttled (see setProgressFrameRate).
+   *
+   * @param context
+   * @param id
+   * @param partialOptions Options to change, as passed to scheduleNotification. Set one to null to remove it.
+   * @return { id, status: "posted" | "unchanged" | "throttled" | "scheduled" | "notFound" }
+   */
+  public static JSONObject update(Context context, int id, JSONObject partialOptions) throws JSONException {
+    StoreLog.get(context).checkWritable();
+
+    return new JSONObject()
+        .put("id", id)
+        .put("status", NotificationUpdater.get().update(context, id, partialOptions));
+  }
+
+  /**
+   * Set how many times per second (at most) a notification is posted when only its progress is updated. Updates in
+   * between are merged into the next post. The setting is persisted.
+   *
+   * @param context
+   * @param frameRate Posts per second, 4 by default
+   */
+  public static void setProgressFrameRate(Context context, int frameRate) {
+    PluginConfig.setProgressFrameRate(context, Math.max(frameRate, 1));
+  }
+
+  /**
+   * Get the notification update statistics (see NotificationUpdater), for diagnostics
+   *
+   * @return { updates, unchanged, throttled }
+   */
+  public static JSONObject getUpdateStats() {
+    return NotificationUpdater.get().getStats();
+  }
+
+  /**
+   * Set how many notifications of a group (options.groupKey) need to be showing for the group to get a summary. Pass
+   * 0 to never post summaries. The setting is persisted.
+   *
+   * @param context
+   * @param threshold Number of notifications, 4 by default
+   */
+  public static void setGroupSummaryThreshold(Context context, int threshold) {
+    PluginConfig.setGroupSummaryThreshold(context, Math.max(threshold, 0));
+  }
+
+  /**
+   * Replace the res:// location of the small icon (silhouetteIcon on Lollipop and up, icon otherwise) with its
+   * resource id, which notifications are built with (see ResourceCache.getIcon). Names are only looked up once.
+   */
+  private static void resolveIcon(Context context, JSONObject options) throws JSONException {
+    final String silhouetteIcon = options.optString("silhouetteIcon", "");
+    final Object icon = Build.VERSION.SDK_INT >= 21 && !silhouetteIcon.isEmpty() ? silhouetteIcon : options.opt("icon");
+
+    // Already a resource id:
+    if (icon instanceof Number) {
+      return;
+    }
+
+    options.put("icon", ResourceCache.getIcon(context, icon instanceof String ? (String) icon : null));
+  }
+
+  /**
+   * Register (and persist) a group of actions, which notifications can then refer to by id (options.actions = id).
+   *
+   * @param context
+   * @param id
+   * @param actions Same as the inline options.actions
+   */
+  public static void registerActionGroup(Context context, String id, JSONArray actions) {
+    ActionGroup.register(context, ActionGroup.parse(context.getApplicationContext(), id, actions));
+  }
+
+  /**
+   * Declare notification channels (Android 8+) up front, so their settings don't come from the first notification
+   * that uses them. They are all created in a single call.
+   *
+   * @param context
+   * @param channels [{ id, name, description, importance: "min" | "low" | "default" | "high", notificationLed, sound, vibrate }]
+   * @return Number of channels declared (0 before Android 8)
+   */
+  public static int createChannels(Context context, JSONArray channels) throws JSONException {
+    return ChannelRegistry.declare(context, channels);
+  }
+
+  /**
+   * Set the size images are decoded at: large icons (thumbnails) are square, big pictures about twice as wide as
+   * they're high. Pass 0 for the defaults (64dp, and the screen's width). With reducedColors opaque images are decoded
+   * as RGB_565, which takes half the memory. The setting is persisted.
+   *
+   * @param context
+   * @param largeIconSize Size of large icons in px
+   * @param bigPictureWidth Width of big pictures in px
+   * @param reducedColors
+   */
+  public static void setImageDecoding(Context context, int largeIconSize, int bigPictureWidth, boolean reducedColors) {
+    PluginConfig.setImageDecoding(context, Math.max(largeIconSize, 0), Math.max(bigPictureWidth, 0), reducedColors);
+  }
+
+  /**
+   * Get the notification image cache statistics (see BitmapCache), for diagnostics. Also reports the bytes of
+   * bitmaps the last notification was built with, the most any was, and how remote images were fetched (see
+   * ImageFetcher).
+   *
+   * @param context
+   * @return { memoryHits, diskHits, misses, hitRate, memoryBytes, maxMemoryBytes, lastBuildBytes, peakBuildBytes,
+   *   fetches: { downloaded, notModified, shared, failed, inFlight } }
+   */
+  public static JSONObject getImageCacheStats(Context context) {
+    final JSONObject stats = BitmapCache.get(context).getStats();
+    try {
+      stats.put("fetches", ImageFetcher.get(context).getStats());
+    } catch (JSONException e) {
+      Log.e(TAG, "Error adding image fetch stats: " + e.getMessage(), e);
+    }
+    return stats;
+  }
+
   public static void scheduleNotification(JSONObject options, Context context) throws Exception {
     // Persist the options so that we can access them later to:
     // - Restore a notification after reboot.
@@ -74,17 +379,184 @@ public class LocalNotificationsPlugin {
     //
     // This way we don't need to pass them around as extras in the Intents.
 
-    Store.save(context, options);
+    // Fail rather than acknowledge a notification the store would throw away:
+    StoreLog.get(context).checkWritable();
+
+    resolveIcon(context, options);
+    final NotificationSpec spec = NotificationSpec.fromJSON(options);
+
+    Store.save(context, spec.getId(), spec);
+    // Shown from scratch, so an update can't compare with what it was posted with before:
+    NotificationUpdater.get().forget(spec.getId());
+
+    // Download its images now, while there's network, rather than when it fires:
+    ImageFetcher.prefetch(context, spec);
 
     // Display or schedule the notification, depending on the options:
     // If there's already a notification with the same ID, the intent flags should take care of updating all the
     // intents but the alarm one, which would be cancelled and rescheduled.
 
-    NotificationRestoreReceiver.scheduleNotification(options, context);
+    NotificationRestoreReceiver.scheduleNotification(spec, context);
 
     // Log.d(TAG, "NEW notification added - ADA Alarm fired map: " + Store.getAlarmsFiredMap(context));
 
   }
+
+  /**
+   * Schedule several notifications with a single call: all of them are validated first, then persisted in one
+   * store transaction and finally displayed or scheduled in one pass. An id that is repeated in the batch is an
+   * error for every item but its first one. The ones that can't be scheduled after all are put back as they were:
+   * the notification they replaced is stored and armed again (without showing it), and new ones are cancelled.
+   *
+   * @param optionsList Array of notification options, as passed to scheduleNotification
+   * @param context
+   * @return Array with one result per item, in the same order: { id, scheduled, error? }
+   */
+  public static JSONArray scheduleNotifications(JSONArray optionsList, Context context) throws JSONException {
+    StoreLog.get(context).checkWritable();
+
+    final int count = optionsList.length();
+    final JSONObject[] results = new JSONObject[count];
+    final List<NotificationSpec> valid = new ArrayList<NotificationSpec>(count);
+    // Index of the item each id was first seen at:
+    final Map<Integer, Integer> indexes = new HashMap<Integer, Integer>();
+
+    for (int i = 0; i < count; i++) {
+      final JSONObject options = optionsList.optJSONObject(i);
+      final JSONObject result = new JSONObject();
+      results[i] = result;
+
+      final String error = validate(options);
+
+      if (error != null) {
+        result.put("scheduled", false).put("error", "Options at index " + i + " " + error);
+        continue;
+      }
+
+      final int id = options.getInt("id");
+      final Integer first = indexes.get(id);
+
+      if (first != null) {
+        result.put("id", id).put("scheduled", false).put("error", "Options at index " + i + " repeat the id of index " + first);
+        continue;
+      }
+
+      try {
+        resolveIcon(context, options);
+        valid.add(NotificationSpec.fromJSON(options));
+        indexes.put(id, i);
+        result.put("id", id);
+      } catch (RuntimeException e) {
+        result.put("scheduled", false).put("error", "Options at index " + i + " are invalid: " + e.getMessage());
+      }
+    }
+
+    // What they replace, to put it back if they can't be scheduled:
+    final Map<Integer, NotificationSpec> previous = new HashMap<Integer, NotificationSpec>();
+    for (NotificationSpec spec : valid) {
+      final NotificationSpec stored = Store.getSpec(context, spec.getId());
+      if (stored != null) {
+        previous.put(spec.getId(), stored);
+      }
+    }
+
+    Store.saveAll(context, valid);
+
+    for (NotificationSpec spec : valid) {
+      NotificationUpdater.get().forget(spec.getId());
+      ImageFetcher.prefetch(context, spec);
+    }
+
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+    final List<Integer> failed = new ArrayList<Integer>();
+    final List<NotificationSpec> restored = new ArrayList<NotificationSpec>();
+    int v = 0;
+    for (JSONObject result : results) {
+      if (result.has("error")) {
+        continue;
+      }
+
+      final NotificationSpec spec = valid.get(v++);
+      boolean scheduled;
+      try {
+        scheduled = NotificationRestoreReceiver.scheduleNotification(spec, context, notificationManager, alarmManager, null, false);
+      } catch (Throwable t) {
+        Log.e(TAG, "Notification " + result.optInt("id") + " could not be scheduled: " + t.getMessage(), t);
+        scheduled = false;
+      }
+
+      result.put("scheduled", scheduled);
+      if (!scheduled) {
+        result.put("error", "Notification " + result.optInt("id") + " could not be scheduled");
+
+        if (previous.containsKey(spec.getId())) {
+          restored.add(previous.get(spec.getId()));
+        } else {
+          failed.add(spec.getId());
+        }
+      }
+    }
+
+    if (!restored.isEmpty()) {
+      Store.saveAll(context, restored);
+
+      // The failed attempt may have replaced their alarm already:
+      for (NotificationSpec spec : restored) {
+        boolean rearmed;
+        try {
+          rearmed = NotificationRestoreReceiver.scheduleNotification(spec, context, notificationManager, alarmManager, null, true);
+        } catch (Throwable t) {
+          Log.e(TAG, "Notification " + spec.getId() + " could not be restored: " + t.getMessage(), t);
+          rearmed = false;
+        }
+
+        if (!rearmed) {
+          failed.add(spec.getId());
+        }
+      }
+    }
+
+    if (!failed.isEmpty()) {
+      final int[] ids = new int[failed.size()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = failed.get(i);
+      }
+      // Along with anything the failed attempt armed or posted:
+      remove(context, ids);
+    }
+
+    return new JSONArray(Arrays.asList(results));
+  }
+
+  /**
+   * @return Why the given options can't be scheduled, or null if they can
+   */
+  private static @Nullable String validate(@Nullable JSONObject options) {
+    if (options == null) {
+      return "are not an object";
+    }
+
+    final Object id = options.opt("id");
+    if (!(id instanceof Number) || ((Number) id).doubleValue() != ((Number) id).intValue()) {
+      return "have no integer id";
+    }
+
+    for (String key : new String[]{ "atTime", "repeatInterval", "catchUpThreshold" }) {
+      final Object value = options.opt(key);
+      if (value != null && value != JSONObject.NULL && !(value instanceof Number)) {
+        return "have a non numeric " + key;
+      }
+    }
+
+    final Object interval = options.opt("interval");
+    if (interval != null && interval != JSONObject.NULL && !(interval instanceof String)) {
+      return "have a non string interval";
+    }
+
+    return null;
+  }
 }
 
 
@@ -48,17 +48,18 @@ public class NotificationActionReceiver extends IntentService {
     } catch (Throwable e) {
       Log.e(TAG, "onClick error: "+e.getMessage(), e);
     }
+
+    // We are already on a worker thread, so just write any store changes before the service stops:
+    Store.flush(getApplicationContext());
   }
 
   private void onClick(String action, Bundle bundle) throws JSONException {
     final Context context = getApplicationContext();
 
     // Note that for the non-default action this will be empty:
-    final JSONObject opts = Store.get(context, bundle.getInt(Builder.NOTIFICATION_ID), false);
-    if (opts == null) {
-      Log.e(TAG, "onClick error - no options found in Store for notification id "+bundle.getInt(Builder.NOTIFICATION_ID));
-      return;
-    }
+    final NotificationSpec spec = Store.getSpec(context, bundle.getInt(Builder.NOTIFICATION_ID));
+    // A copy we can add the event data to:
+    final JSONObject opts = spec != null ? spec.toJSON() : new JSONObject();
 
     boolean isAppActive = LocalNotificationsPlugin.isActive;
     boolean doLaunch = intent.getBooleanExtra("NOTIFICATION_LAUNCH", true);
@@ -83,23 +84,25 @@ public class NotificationActionReceiver extends IntentService {
 
     LocalNotificationsPlugin.executeOnMessageReceivedCallback(opts);
 
-    if (opts.has("id")) {
-      int id = opts.getInt("id");
-      final long interval = opts.optLong("repeatInterval", 0); // in ms
+    if (spec != null && opts.has("id")) {
+      int id = spec.getId();
+      final boolean repeating = spec.isRepeating();
 
       // Clear the notification from the tray, unless it's marker as ongoing/sticky
       // if (opts.has("id") && !opts.optBoolean("ongoing", false) && opts.optInt("repeatInterval", 0) == 0)
-      if (!opts.optBoolean("ongoing", false)) {
-        ((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE)).cancel(id);
+      if (!spec.isOngoing()) {
+        final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.cancel(id);
+        GroupSummaries.get().removed(context, notificationManager, id);
 
         // And also unpersist it unless it's a repeating notification
-        if (interval == 0) {
+        if (!repeating) {
           Store.remove(context, id);
         }
       }
       // Handle repeating notifications
-      if (interval > 0) {
-        NotificationRestoreReceiver.handleRepeatingScheduleOnActionOrClear(opts, context, id);
+      if (repeating) {
+        NotificationRestoreReceiver.handleRepeatingScheduleOnActionOrClear(spec, context, id);
       }
     }
 
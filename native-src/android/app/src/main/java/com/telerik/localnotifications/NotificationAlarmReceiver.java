@@ -6,54 +6,97 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import org.json.JSONObject;
-
-import java.util.Map;
-
 public class NotificationAlarmReceiver extends BroadcastReceiver {
 
   private static final String TAG = "NotificationAlarmRcvr";
 
   public void onReceive(Context context, Intent intent) {
-    final int id = intent.getIntExtra(Builder.NOTIFICATION_ID, 0);
-    final JSONObject opts = Store.get(context.getApplicationContext(), id);
+    final Context appContext = context.getApplicationContext();
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+    if (AlarmScheduler.ACTION_DUE.equals(intent.getAction())) {
+      // The single alarm fired (see AlarmScheduler):
+      final int delivered = AlarmScheduler.deliverDue(appContext);
+      Log.d(TAG, "Delivered " + delivered + " due notifications");
+    } else if (AlarmBatcher.isBatch(intent)) {
+      // The alarm shared by the notifications due around the same time fired (see AlarmBatcher):
+      final int delivered = AlarmBatcher.deliver(appContext, intent);
+      Log.d(TAG, "Delivered a batch of " + delivered + " notifications");
+    } else {
+      deliver(appContext, notificationManager, intent.getIntExtra(Builder.NOTIFICATION_ID, 0));
+    }
 
-    if (opts == null) {
+    // Note we don't unpersist this notification just yet, as it might still need to be restored
+    // after a reboot.
+
+    // In order to support firing a notification if an alarm was missed due to the device being
+    // turned off, we record the current timestamp for this alarm. This data is used in the part of
+    // NotificationRestoreReceiver that runs on device reboot.
+    // Make sure it's written (and the notifications posted) before the process can go away:
+    NotificationPoster.finish(appContext, goAsync());
+  }
+
+  /**
+   * Show the notification with the given id and record that its alarm fired
+   *
+   * @param context
+   * @param notificationManager
+   * @param id
+   * @return false if there are no options for that id
+   */
+  static boolean deliver(Context context, NotificationManager notificationManager, int id) {
+    final NotificationSpec spec = Store.getSpec(context, id);
+
+    if (spec == null) {
       Log.e(TAG, "Notification could not be created, options are null");
-      return;
+      return false;
     }
 
-    /*
-    Log.i(TAG, "Receive Ctx " + context);
-    Log.i(TAG, "Receive Ctx2 " + context.getApplicationContext());
+    deliver(context, notificationManager, spec);
+    return true;
+  }
 
-    Log.i(TAG, "Receive CTX1 notification map: " + Store.getAll(context));
-    Log.i(TAG, "Receive CTX2 notification map: " + Store.getAll(context.getApplicationContext()));
-    */
-    // Register timestamp of this alarm being fired
-    Store.registerAlarmFired(context.getApplicationContext(), id);
+  /**
+   * Show the given notification and record that its alarm fired
+   *
+   * @param context
+   * @param notificationManager
+   * @param spec
+   */
+  static void deliver(Context context, NotificationManager notificationManager, NotificationSpec spec) {
+    final int id = spec.getId();
 
     /*
-    Log.i(TAG, "Receive CTX1 Alarm fired map: " + Store.getAlarmsFiredMap(context));
-    Log.i(TAG, "Receive CTX2 Alarm fired map: " + Store.getAlarmsFiredMap(context.getApplicationContext()));
+    Log.i(TAG, "Receive CTX notification map: " + Store.getAll(context));
     */
+    // Register timestamp of this alarm being fired
+    Store.registerAlarmFired(context, id);
+
+    // Repeating notifications which don't use a repeating alarm need the next one set up:
+    final Recurrence recurrence = spec.getRecurrence();
+    if (recurrence != null && (recurrence.isCalendar() || spec.isAlertWhileIdle()) && !AlarmScheduler.isEnabled(context)) {
+      NotificationRestoreReceiver.scheduleNotification(spec, context, null, true);
+    }
 
     // Create the notification:
     try {
-      ((NotificationManager) context
-        .getSystemService(Context.NOTIFICATION_SERVICE))
-        .notify(id, Builder.build(opts, context, id));
+      NotificationPoster.get().post(notificationManager, id, Builder.build(spec, context, id));
+      GroupSummaries.get().posted(context, notificationManager, spec);
     } catch (Throwable t) {
       Log.e(TAG, "Notification could not be created!" + t.getMessage(), t);
     }
+  }
 
-    // Note we don't unpersist this notification just yet, as it might still need to be restored
-    // after a reboot.
-
-    // In order to support firing a notification if an alarm was missed due to the device being
-    // turned off, we record the current timestamp for this alarm. This data is used in the part of
-    // NotificationRestoreReceiver that runs on device reboot.
-
-
+  /**
+   * The intent of the alarm registered for a single notification
+   *
+   * @param context
+   * @param id
+   * @return
+   */
+  static Intent getAlarmIntent(Context context, int id) {
+    return new Intent(context, NotificationAlarmReceiver.class)
+        .setAction(String.valueOf(id))
+        .putExtra(Builder.NOTIFICATION_ID, id);
   }
 }
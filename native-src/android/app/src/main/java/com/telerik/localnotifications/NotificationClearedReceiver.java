@@ -1,12 +1,12 @@
 package com.telerik.localnotifications;
 
+import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
 
 import android.content.BroadcastReceiver;
 import androidx.annotation.Nullable;
 
-import org.json.JSONObject;
 import android.util.Log;
 
 public class NotificationClearedReceiver extends BroadcastReceiver {
@@ -37,19 +37,25 @@ public class NotificationClearedReceiver extends BroadcastReceiver {
 
     // Default value not used as above check ensures we have an actual value:
     final int id = intent.getIntExtra(Builder.NOTIFICATION_ID, 0);
-    final JSONObject opts = Store.get(context, id);
+    final NotificationSpec spec = Store.getSpec(context, id);
 
     try {
-      if (opts != null) {
+      // Posting it again makes a new notification now, not an update:
+      NotificationPoster.get().cleared(id);
+
+      // Its group's summary (if any) is one notification shorter now:
+      GroupSummaries.get().removed(context, (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE), id);
+
+      if (spec != null) {
         // In case we clear a non-recurring notification, we remove it
-        if (opts.optInt("repeatInterval", 0) == 0) {
+        if (!spec.isRepeating()) {
           // Remove the persisted notification data if it's not repeating:
           Store.remove(context, id);
         }
         else {
-          NotificationRestoreReceiver.handleRepeatingScheduleOnActionOrClear(opts, context, id);
+          NotificationRestoreReceiver.handleRepeatingScheduleOnActionOrClear(spec, context, id);
         }
-        LocalNotificationsPlugin.executeOnMessageClearedCallback(opts);
+        LocalNotificationsPlugin.executeOnMessageClearedCallback(spec.toJSON());
       }
       else {
         Log.e(TAG, "onReceive, id "+id+", no opts");
@@ -58,5 +64,7 @@ public class NotificationClearedReceiver extends BroadcastReceiver {
       Log.e(TAG, "Notification "+id+" could not be (re-)scheduled!" + e.getMessage(), e);
     }
 
+    Store.flush(context, goAsync());
+
   }
 }
\ No newline at end of file
@@ -0,0 +1,301 @@
+package com.telerik.localnotifications;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import androidx.annotation.Nullable;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posting pipeline in front of NotificationManager.notify.
+ *
+ * The system silently drops the updates of a notification that is already showing when the app posts faster than it
+ * allows (5 per second), which rapid updates (ie. progress) can easily do. New notifications are never dropped, so
+ * they're posted right away. Updates are let through by a token bucket; the ones over the rate are queued and posted
+ * as tokens come back. A queued update of a notification that gets updated again is replaced, so only its latest
+ * version is posted, and the superseded one counts as dropped (as does a queued update of a notification that is
+ * cancelled). Nothing else is ever dropped: the queue only holds one post per notification.
+ *
+ * Posts go to NotificationManager under the lock, so two versions of the same notification can't overtake each
+ * other on their way there.
+ *
+ * Receivers have to {@link #finish} their broadcast through it, so the process is kept alive until the queue is empty
+ * (a second for every 5 notifications being updated), or for a few seconds at most, as a broadcast has to finish
+ * within 10. The queue keeps being drained after that for as long as the process lives.
+ */
+final class NotificationPoster {
+
+  private static final String TAG = "NotificationPoster";
+
+  // NotificationManagerService's default maximum enqueue rate:
+  private static final double RATE_PER_SECOND = 5;
+  private static final int BURST = 5;
+
+  // How long a broadcast is kept alive for the queue to drain, leaving time to write the store:
+  static final long FINISH_TIMEOUT_MS = 5000;
+
+  private static NotificationPoster instance;
+
+  private final ScheduledExecutorService executor;
+  // Queued posts by tag and id, oldest first:
+  private final Map<String, Post> pending = new LinkedHashMap<String, Post>();
+  // Notifications posted in this process (and not cancelled since), by tag and id, as posting them again is an update:
+  private final Set<String> shown = new HashSet<String>();
+  private final List<Runnable> idleCallbacks = new ArrayList<Runnable>();
+  private double tokens = BURST;
+  private long refilledAt = SystemClock.elapsedRealtime();
+  private boolean drainScheduled;
+
+  private long posted;
+  private long coalesced;
+  private long dropped;
+
+  private static final class Post {
+    final NotificationManager notificationManager;
+    final @Nullable String tag;
+    final int id;
+    final Notification notification;
+
+    Post(NotificationManager notificationManager, @Nullable String tag, int id, Notification notification) {
+      this.notificationManager = notificationManager;
+      this.tag = tag;
+      this.id = id;
+      this.notification = notification;
+    }
+  }
+
+  static synchronized NotificationPoster get() {
+    if (instance == null) {
+      instance = new NotificationPoster();
+    }
+
+    return instance;
+  }
+
+  private NotificationPoster() {
+    final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "NotificationPoster");
+      }
+    });
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.executor = executor;
+  }
+
+  /**
+   * Finish the given broadcast once the queued notifications are posted (or {@link #FINISH_TIMEOUT_MS} have passed)
+   * and the store is written. Use it at the end of onReceive with the result of {@link BroadcastReceiver#goAsync()}.
+   *
+   * @param context
+   * @param result
+   */
+  static void finish(final Context context, final BroadcastReceiver.PendingResult result) {
+    final NotificationPoster poster = get();
+    final Runnable flush = new Runnable() {
+      private boolean done;
+
+      @Override
+      public void run() {
+        // Whichever comes first, the queue draining or the deadline:
+        synchronized (this) {
+          if (done) {
+            return;
+          }
+          done = true;
+        }
+
+        Store.flush(context, result);
+      }
+    };
+
+    poster.executor.schedule(flush, FINISH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    poster.whenIdle(flush);
+  }
+
+  void post(NotificationManager notificationManager, int id, Notification notification) {
+    post(notificationManager, null, id, notification);
+  }
+
+  /**
+   * Post the notification now if it's new or the rate allows it, otherwise queue it (replacing a queued version of it).
+   */
+  synchronized void post(NotificationManager notificationManager, @Nullable String tag, int id, Notification notification) {
+    final Post post = new Post(notificationManager, tag, id, notification);
+    final String key = key(tag, id);
+
+    refill();
+
+    if (pending.containsKey(key) || (shown.contains(key) && (!pending.isEmpty() || tokens < 1))) {
+      enqueue(key, post);
+      return;
+    }
+
+    // New notifications count towards the rate too, but aren't held back by it:
+    tokens = Math.max(tokens - 1, 0);
+    shown.add(key);
+    notify(post);
+  }
+
+  /**
+   * Forget the queued post of the given notification, ie. because it's being cancelled.
+   */
+  synchronized void cancel(int id) {
+    cancel(null, id);
+  }
+
+  synchronized void cancel(@Nullable String tag, int id) {
+    if (pending.remove(key(tag, id)) != null) {
+      dropped++;
+    }
+    shown.remove(key(tag, id));
+  }
+
+  /**
+   * Forget every queued post.
+   */
+  synchronized void cancelAll() {
+    dropped += pending.size();
+    pending.clear();
+    shown.clear();
+  }
+
+  /**
+   * Record that the user cleared the given notification, so posting it again makes a new one rather than an update.
+   */
+  synchronized void cleared(int id) {
+    shown.remove(key(null, id));
+  }
+
+  /**
+   * Run the given callback (on the posting thread) once the queue is empty.
+   */
+  void whenIdle(Runnable callback) {
+    synchronized (this) {
+      if (!pending.isEmpty()) {
+        idleCallbacks.add(callback);
+        return;
+      }
+    }
+
+    callback.run();
+  }
+
+  /**
+   * @return { posted, coalesced, dropped, pending }
+   */
+  synchronized JSONObject getStats() {
+    final JSONObject stats = new JSONObject();
+    try {
+      stats.put("posted", posted)
+          .put("coalesced", coalesced)
+          .put("dropped", dropped)
+          .put("pending", pending.size());
+    } catch (JSONException e) {
+      Log.e(TAG, "Error building post stats" + e.getMessage(), e);
+    }
+    return stats;
+  }
+
+  private void enqueue(String key, Post post) {
+    final Post queued = pending.get(key);
+
+    if (queued != null) {
+      // Keeps its place in the queue, with the latest version:
+      pending.put(key, post);
+      coalesced++;
+      dropped++;
+      return;
+    }
+
+    pending.put(key, post);
+    scheduleDrain();
+  }
+
+  private void drain() {
+    List<Runnable> callbacks = null;
+
+    synchronized (this) {
+      drainScheduled = false;
+      refill();
+
+      final Iterator<Post> it = pending.values().iterator();
+      while (tokens >= 1 && it.hasNext()) {
+        final Post post = it.next();
+        it.remove();
+        shown.add(key(post.tag, post.id));
+        tokens--;
+        notify(post);
+      }
+
+      if (!pending.isEmpty()) {
+        scheduleDrain();
+      } else if (!idleCallbacks.isEmpty()) {
+        callbacks = new ArrayList<Runnable>(idleCallbacks);
+        idleCallbacks.clear();
+      }
+    }
+
+    if (callbacks != null) {
+      for (Runnable callback : callbacks) {
+        callback.run();
+      }
+    }
+  }
+
+  private void scheduleDrain() {
+    if (drainScheduled) {
+      return;
+    }
+
+    drainScheduled = true;
+    final long delay = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1000 / RATE_PER_SECOND);
+    executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void refill() {
+    final long now = SystemClock.elapsedRealtime();
+    tokens = Math.min(BURST, tokens + (now - refilledAt) * RATE_PER_SECOND / 1000);
+    refilledAt = now;
+  }
+
+  // Called with the lock held:
+  private void notify(Post post) {
+    try {
+      if (post.tag != null) {
+        post.notificationManager.notify(post.tag, post.id, post.notification);
+      } else {
+        post.notificationManager.notify(post.id, post.notification);
+      }
+      posted++;
+    } catch (Throwable t) {
+      Log.e(TAG, "Notification " + post.id + " could not be posted! " + t.getMessage(), t);
+    }
+  }
+
+  private static String key(@Nullable String tag, int id) {
+    return tag == null ? String.valueOf(id) : tag + ":" + id;
+  }
+}
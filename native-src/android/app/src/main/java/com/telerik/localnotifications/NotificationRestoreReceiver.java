@@ -6,14 +6,10 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import androidx.annotation.Nullable;
 import android.util.Log;
 
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-
-import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * Notifications need to be restored when the device is rebooted,
@@ -24,56 +20,43 @@ public class NotificationRestoreReceiver extends BroadcastReceiver {
   private static final String TAG = "NotifyRestoreReceiver";
   @Override
   public void onReceive(Context context, Intent intent) {
-    if (context == null || !Intent.ACTION_BOOT_COMPLETED.equalsIgnoreCase(intent.getAction())) {
+    if (context == null) {
       return;
     }
 
-    Map<String,String> alarmsFiredMap = Store.getAlarmsFiredMap(context);
-    /*
-    Log.d(TAG, "Restore CTX1 Alarm fired map: " + alarmsFiredMap);
-    Log.d(TAG, "Restore CTX2 Alarm fired map: " + Store.getAlarmsFiredMap(context.getApplicationContext()));
-    */
     // Process all notifications for rescheduling
-    // and showing notifications if they have fired while the device was offline
-    final Map<String,String> storeContentMap = Store.getAll(context);
-    try {
-      for (String key : storeContentMap.keySet()) {
-        // Re-schedule notification
-        final String notificationString = storeContentMap.get(key);
-        if (notificationString != null) {
-          Log.i(TAG, "Process previously scheduled notification: " + notificationString);
-          JSONObject json = new JSONObject(notificationString);
-          scheduleNotification(json, context, alarmsFiredMap, false);
-        }
-      }
-    } catch (Throwable e) {
-      Log.e(TAG, "Notification could not be processed! " + e.getMessage(), e);
+    // and showing notifications if they have fired while the device was offline.
+    // This happens in the background, in as many broadcasts as needed (see RestoreTask):
+    if (Intent.ACTION_BOOT_COMPLETED.equalsIgnoreCase(intent.getAction())) {
+      RestoreTask.start(context.getApplicationContext(), goAsync(), false);
+    } else if (RestoreTask.ACTION_RESUME.equals(intent.getAction())) {
+      RestoreTask.start(context.getApplicationContext(), goAsync(), true);
+    } else if (RestoreWindow.ACTION_REFILL.equals(intent.getAction())) {
+      RestoreTask.refill(context.getApplicationContext(), goAsync());
     }
-
   }
 
-  static void scheduleNotification(JSONObject options, Context context) {
-    scheduleNotification(options, context, null, false);
+  static void scheduleNotification(NotificationSpec spec, Context context) {
+    scheduleNotification(spec, context, null, false);
   }
 
   /**
    * Ensure repeating notifications using alertWhileIdle (waking up in Doze mode) are rescheduled
    * manually since they can not be set as repeating using the AlarmManager
    *
-   * @param options
+   * @param spec
    * @param context
    * @param id Notification id
    *
    */
-  static void handleRepeatingScheduleOnActionOrClear(JSONObject options, Context context, int id) {
-    final long interval = options.optLong("repeatInterval", 0); // in ms
-    final boolean alertWhileIdle = options.optInt("alertWhileIdle", 0) == 1;
+  static void handleRepeatingScheduleOnActionOrClear(NotificationSpec spec, Context context, int id) {
+    final boolean alertWhileIdle = spec.isAlertWhileIdle();
 
     // If a repeating alarm is also has "alertWhileIdle" we need to manually schedule the next alarm
     // since there is no setExactAndAllowWhileIdleRepeating method and the Android docs explicitly state
     // that this is the way to handle this
     if (alertWhileIdle) {
-      scheduleNotification(options, context, null,true);
+      scheduleNotification(spec, context, null, true);
     }
     else {
       // Log.c(TAG, "handleRepeatingScheduleOnActionOrClear, id "+id+" (non alertWhileIdle), has repeat, not removing");
@@ -84,28 +67,48 @@ public class NotificationRestoreReceiver extends BroadcastReceiver {
   /**
    * Handles scheduling of notifications - and displaying notifications that are due/overdue
    *
-   * @param options
+   * @param spec
    * @param context
-   * @param alarmsFiredMap
+   * @param catchUp When restoring (ie. on reboot), collects the missed notifications, using when the alarm last fired
+   *                to tell if they were. Otherwise (null) a past due alertWhileIdle notification is always shown.
    * @param skipImmediateNotifications
    */
-  static void scheduleNotification(JSONObject options, Context context, Map<String,String> alarmsFiredMap, boolean skipImmediateNotifications) {
+  static void scheduleNotification(NotificationSpec spec, Context context, @Nullable CatchUp catchUp, boolean skipImmediateNotifications) {
+    scheduleNotification(
+        spec,
+        context,
+        (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE),
+        (AlarmManager) context.getSystemService(Context.ALARM_SERVICE),
+        catchUp,
+        skipImmediateNotifications);
+  }
+
+  /**
+   * Same as above, using the given system services so that callers scheduling many notifications in one pass
+   * only need to look them up once
+   *
+   * @return false if the notification could not be shown or its alarm could not be registered
+   */
+  static boolean scheduleNotification(NotificationSpec spec, Context context, NotificationManager notificationManager, AlarmManager alarmManager,
+                                      @Nullable CatchUp catchUp, boolean skipImmediateNotifications) {
 
     // We might create the notification IMMEDIATELY:
 
     // If no ID is provided, we automatically assign different IDs so that all notifications are persisted:
-    final int notificationID = options.optInt("id", 0);
-    final long triggerTime = options.optLong("atTime", 0);
+    final int notificationID = spec.getId();
+    final long triggerTime = spec.getAtTime();
     final Date triggerDate = new Date(triggerTime);
     final long nowMillis = System.currentTimeMillis();
     final Date now = new Date(nowMillis);
-    final boolean alertWhileIdle = options.optInt("alertWhileIdle", 0) == 1;
-    final long interval = options.optLong("repeatInterval", 0); // in ms
+    final boolean alertWhileIdle = spec.isAlertWhileIdle();
+    final long interval = spec.getRepeatInterval(); // in ms
+    final Recurrence recurrence = spec.getRecurrence();
 
     // In case the notification is set to alertWhileIdle, we need to check if we missed any alarms while the device was shut down
     // - this is ony relevant if the notification has a trigger time (atTime) set
     if (alertWhileIdle && !skipImmediateNotifications && triggerTime != 0) {
       boolean doSendNotification = false;
+      long lastFiredTs = -1;
       // Check if the trigger time is in the past - otherwise it will be handled later
       if (triggerTime <= nowMillis) {
         Log.d(TAG, "Alarm "+ notificationID+" has trigger time in the past, interval "+interval);
@@ -113,26 +116,20 @@ public class NotificationRestoreReceiver extends BroadcastReceiver {
         // Trigger time is in the past - for repeating - and non-repeating - notifications we need to check when the last alarm was fired
         // as we only store the initial trigger time (atTime)
         // Check when the alarm was last fired
-        long lastFiredTs = -1;
-        if (alarmsFiredMap != null) {
-          String lastFiredTsStr = alarmsFiredMap.get(Integer.toString(notificationID));
-          if (lastFiredTsStr != null) {
-            try {
-              lastFiredTs = Long.parseLong(lastFiredTsStr);
-              Log.d(TAG, "Alarm "+ notificationID+" - last fired found "+lastFiredTs);
-
-            } catch (NumberFormatException e) {
-              Log.e(TAG, "Notification "+notificationID+" - unable to parse last fired timestamp." + e.getMessage(), e);
-            }
+        if (catchUp != null) {
+          final long lastFired = Store.getAlarmLastFiredTimestamp(context, notificationID);
+          if (lastFired != 0) {
+            lastFiredTs = lastFired;
+            Log.d(TAG, "Alarm "+ notificationID+" - last fired found "+lastFiredTs);
           }
         }
         if (lastFiredTs < 0) {
           Log.d(TAG, "No alarm fired info found for notification "+notificationID);
         }
-        if (interval > 0) {
-          // Determine if the last fired timestamp has not been set yet or if the last fired timestamp
-          // plus the interval is in the past - if so, we missed this notification and show it now
-          doSendNotification = lastFiredTs < 0 || lastFiredTs + interval < nowMillis;
+        if (recurrence != null) {
+          // Determine if the last fired timestamp has not been set yet or if an occurrence has passed
+          // since - if so, we missed this notification and show it now
+          doSendNotification = lastFiredTs < 0 || lastFiredTs < recurrence.lastOccurrenceAtOrBefore(nowMillis);
         }
         else {
           // For non-repeating alarms we just check if it should have been fired but has not (or was not recorded as fired)
@@ -141,10 +138,13 @@ public class NotificationRestoreReceiver extends BroadcastReceiver {
       }
 
       Log.d(TAG, "Alarm "+ notificationID+" - showNotification="+doSendNotification);
-      if (doSendNotification) {
-        ((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE)).notify(
-                notificationID, com.telerik.localnotifications.Builder.build(options, context, notificationID)
+      if (doSendNotification && catchUp != null) {
+        catchUp.add(spec, lastFiredTs, nowMillis);
+      } else if (doSendNotification) {
+        NotificationPoster.get().post(
+                notificationManager, notificationID, com.telerik.localnotifications.Builder.build(spec, context, notificationID)
         );
+        GroupSummaries.get().posted(context, notificationManager, spec);
       }
     }
 
@@ -152,47 +152,60 @@ public class NotificationRestoreReceiver extends BroadcastReceiver {
       // If we just want to show the notification immediately, there's no need to create an Intent,
       // we just send the notification to the Notification Service:
 
-      ((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE)).notify(
-          notificationID, com.telerik.localnotifications.Builder.build(options, context, notificationID)
+      NotificationPoster.get().post(
+          notificationManager, notificationID, com.telerik.localnotifications.Builder.build(spec, context, notificationID)
       );
+      GroupSummaries.get().posted(context, notificationManager, spec);
       if (triggerTime == 0) {
-        return;
+        return true;
       }
     }
 
     // Check if the notification has EXPIRED:
-    if (interval == 0 && now.after(triggerDate)) {
+    if (recurrence == null && now.after(triggerDate)) {
       Store.remove(context, notificationID);
-      return;
+      return true;
     }
 
     // Or SCHEDULE it for later:
 
-    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-
     try {
-      final Intent notificationIntent = new Intent(context, NotificationAlarmReceiver.class)
-          .setAction(options.getString("id"))
-          .putExtra(Builder.NOTIFICATION_ID, notificationID);
+      if (AlarmScheduler.isEnabled(context)) {
+        // Its trigger time is already in the store, we just need to make sure the alarm fires for it if it's next:
+        AlarmScheduler.arm(context, alarmManager);
+        return true;
+      }
 
-      if (interval > 0) {
-        if (alertWhileIdle) {
-          long nextTriggerTime = triggerTime;
-
-          // Calculate the next trigger time based on the interval
-          // Note that we at this point don't know how many alarm occurrences we may have missed and hence need to add the timer interval to the scheduled
-          // alarm time until we reach a point ahead in time (ie. the user clears or activates a daily repeating notification 2 days later)
-          // If the trigger date is in the past, we set up the next instance to be x + 1 times the interval from the trigger date
-          if (nextTriggerTime <= nowMillis) {
-              long multiplier = (nowMillis - triggerTime) / interval;
-              nextTriggerTime = (multiplier + 1) * interval + triggerTime;
-          }
+      if (AlarmBatcher.isEnabled(context) && (recurrence == null || alertWhileIdle || recurrence.isCalendar())) {
+        // Share the alarm of the notifications due around the same time:
+        AlarmBatcher.schedule(context, alarmManager, spec, recurrence == null ? triggerTime : Store.nextTriggerTime(spec, nowMillis));
+        return true;
+      }
+
+      // Its window must not deliver it too:
+      AlarmBatcher.unbatch(context, notificationID);
+
+      final Intent notificationIntent = NotificationAlarmReceiver.getAlarmIntent(context, notificationID);
+
+      if (recurrence != null) {
+        if (alertWhileIdle || recurrence.isCalendar()) {
+          // There's no setExactAndAllowWhileIdleRepeating, and calendar units (or DST) don't have a fixed interval,
+          // so we only set up the next occurrence, and the next one once that fires (see NotificationAlarmReceiver).
+          // Note that we at this point don't know how many alarm occurrences we may have missed (ie. the user clears or
+          // activates a daily repeating notification 2 days later), the rule takes us to the first one ahead in time:
+          final long nextTriggerTime = Store.nextTriggerTime(spec, nowMillis);
           final PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, notificationIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-          alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, nextTriggerTime, pendingIntent);
+          if (alertWhileIdle) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, nextTriggerTime, pendingIntent);
+          } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, nextTriggerTime, pendingIntent);
+          }
         }
         else {
+          // A start time in the past fires right away, which we only want if we may have missed it:
+          final long startTime = skipImmediateNotifications ? Store.nextTriggerTime(spec, nowMillis) : triggerTime;
           final PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, notificationIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-          alarmManager.setRepeating(AlarmManager.RTC_WAKEUP, triggerTime, interval, pendingIntent);
+          alarmManager.setRepeating(AlarmManager.RTC_WAKEUP, startTime, recurrence.getPeriod(), pendingIntent);
         }
 
       } else {
@@ -208,6 +221,9 @@ public class NotificationRestoreReceiver extends BroadcastReceiver {
       }
     } catch (Throwable e) {
       Log.e(TAG, "Notification "+notificationID+" could not be scheduled!" + e.getMessage(), e);
+      return false;
     }
+
+    return true;
   }
 }
@@ -0,0 +1,483 @@
+package com.telerik.localnotifications;
+
+import android.content.Context;
+import android.graphics.Color;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable, pre-parsed notification options.
+ *
+ * The options are parsed once (when scheduling, or when loading them from the {@link Store}) so that
+ * building, scheduling and restoring a notification only reads plain fields instead of doing JSON lookups.
+ * The original JSON is kept (as a private copy) to persist it and to pass it back to the JS callbacks.
+ */
+final class NotificationSpec {
+
+  private static final String TAG = "NotificationSpec";
+
+  static final String DEFAULT_CHANNEL = "Notifications";
+
+  // How to deliver alertWhileIdle notifications missed while the device was off (see CatchUp):
+  static final String CATCH_UP_ONCE = "once";
+  static final String CATCH_UP_SUMMARY = "summary";
+  static final String CATCH_UP_DROP = "drop";
+  static final int DEFAULT_NOTIFICATION_COLOR = Color.parseColor("#ffffffff");
+  static final int DEFAULT_PROGRESS_MAX = 100;
+
+  // Options that only affect when (or how often) the notification is shown, not what it shows:
+  private static final String[] SCHEDULING_OPTIONS = {
+      "atTime", "interval", "repeatInterval", "alertWhileIdle", "catchUp", "catchUpThreshold", "tags"
+  };
+
+  private final JSONObject options;
+
+  private final int id;
+  private final long atTime;
+  private final long repeatInterval;
+  private final Recurrence recurrence;
+  private final boolean alertWhileIdle;
+  private final String catchUp;
+  private final long catchUpThreshold;
+
+  private final String groupKey;
+  private final String[] tags;
+
+  private final String channel;
+  private final String title;
+  private final String subtitle;
+  private final String body;
+  private final String ticker;
+  private final int icon;
+  private final int badge;
+  private final int color;
+  private final boolean ongoing;
+  private final int priority;
+  private final boolean launch;
+  private final boolean sound;
+
+  private final boolean notificationLed;
+  private final int ledColor;
+  private final boolean onlyAlertOnce;
+
+  private final boolean progress;
+  private final int progressValue;
+  private final int progressMax;
+  private final boolean progressIndeterminate;
+
+  private final String thumbnail;
+  private final boolean imageAsThumbnail;
+  private final String image;
+  private final boolean bigTextStyle;
+  private final boolean grouped;
+  private final String[] groupedMessages;
+  private final String groupSummary;
+
+  private final String actionGroupId;
+  private final JSONArray actions;
+
+  // The inline actions, parsed the first time they're needed:
+  private volatile ActionGroup actionGroup;
+
+  // See getContentHash:
+  private volatile String contentHash;
+
+  /**
+   * Parse the given options. This never fails: missing or invalid values fall back to their defaults.
+   *
+   * @param options
+   * @return
+   */
+  static NotificationSpec fromJSON(JSONObject options) {
+    return new NotificationSpec(copy(options));
+  }
+
+  private NotificationSpec(JSONObject options) {
+    this.options = options;
+
+    // If no ID is provided, we automatically assign different IDs so that all notifications are persisted:
+    id = options.optInt("id", 0);
+    atTime = options.optLong("atTime", 0);
+    repeatInterval = options.optLong("repeatInterval", 0); // in ms
+    // The named interval (when set) is exact, repeatInterval is only an approximation for calendar units:
+    recurrence = Recurrence.parse(options.optString("interval", null), repeatInterval, atTime);
+    alertWhileIdle = options.optInt("alertWhileIdle", 0) == 1;
+    catchUp = options.optString("catchUp", CATCH_UP_ONCE);
+    catchUpThreshold = options.optLong("catchUpThreshold", 0); // in ms
+
+    groupKey = options.optString("groupKey", null);
+    tags = parseTags(options.optJSONArray("tags"), groupKey);
+
+    // We use options.channel as both channel id and name. If not set, both default to DEFAULT_CHANNEL:
+    channel = options.optString("channel", DEFAULT_CHANNEL);
+    title = options.optString("title", null);
+    subtitle = options.optString("subtitle", null);
+    body = options.optString("body", null);
+    ticker = options.optString("ticker", null);
+    icon = options.optInt("icon");
+    badge = options.optInt("badge");
+    color = options.optInt("color");
+    ongoing = options.optBoolean("ongoing");
+    priority = options.optInt("priority", options.optBoolean("forceShowWhenInForeground") ? 1 : 0);
+    launch = options.optBoolean("launch", true);
+    sound = options.has("sound");
+
+    notificationLed = isLedEnabled(options.opt("notificationLed"));
+    ledColor = notificationLed ? parseLedColor(options.opt("notificationLed")) : DEFAULT_NOTIFICATION_COLOR;
+    onlyAlertOnce = options.optBoolean("onlyAlertOnce");
+
+    progressIndeterminate = options.optBoolean("progressIndeterminate");
+    progress = options.has("progress") || progressIndeterminate;
+    progressValue = options.optInt("progress");
+    progressMax = options.optInt("progressMax", DEFAULT_PROGRESS_MAX);
+
+    final Object thumbnailOption = options.opt("thumbnail");
+    thumbnail = thumbnailOption instanceof String ? (String) thumbnailOption : null;
+    imageAsThumbnail = Boolean.TRUE.equals(thumbnailOption);
+    image = options.has("image") ? options.optString("image", "") : null;
+    bigTextStyle = options.optBoolean("bigTextStyle");
+    grouped = options.has("groupedMessages");
+    groupedMessages = parseStrings(options.optJSONArray("groupedMessages"));
+    // The JS defaults set it to null, which optString would turn into "null":
+    groupSummary = options.isNull("groupSummary") ? null : options.optString("groupSummary");
+
+    final Object actionsOption = options.opt("actions");
+    actionGroupId = actionsOption instanceof String ? (String) actionsOption : null;
+    actions = actionsOption instanceof JSONArray ? (JSONArray) actionsOption : null;
+  }
+
+  // Scheduling:
+
+  int getId() {
+    return id;
+  }
+
+  /**
+   * Initial trigger time (epoch millis), or 0 to show the notification immediately.
+   */
+  long getAtTime() {
+    return atTime;
+  }
+
+  /**
+   * Repeat interval in ms, 0 if not repeating. Approximate for calendar units, see {@link #getRecurrence()}.
+   */
+  long getRepeatInterval() {
+    return repeatInterval;
+  }
+
+  /**
+   * Repeat rule, or null if not repeating.
+   */
+  @Nullable Recurrence getRecurrence() {
+    return recurrence;
+  }
+
+  boolean isRepeating() {
+    return recurrence != null;
+  }
+
+  boolean isAlertWhileIdle() {
+    return alertWhileIdle;
+  }
+
+  /**
+   * One of the CATCH_UP_* policies.
+   */
+  String getCatchUp() {
+    return catchUp;
+  }
+
+  /**
+   * With the drop catch up policy, how old (in ms) a missed notification can be and still be shown.
+   */
+  long getCatchUpThreshold() {
+    return catchUpThreshold;
+  }
+
+  // Lookup:
+
+  /**
+   * Key shared by related notifications (ie. those of a project), or null if none is set.
+   */
+  @Nullable String getGroupKey() {
+    return groupKey;
+  }
+
+  /**
+   * Tags the notification can be looked up by: options.tags plus the group key, without duplicates. Don't modify it.
+   */
+  String[] getTags() {
+    return tags;
+  }
+
+  // Content:
+
+  String getChannel() {
+    return channel;
+  }
+
+  @Nullable String getTitle() {
+    return title;
+  }
+
+  @Nullable String getSubtitle() {
+    return subtitle;
+  }
+
+  @Nullable String getBody() {
+    return body;
+  }
+
+  @Nullable String getTicker() {
+    return ticker;
+  }
+
+  int getIcon() {
+    return icon;
+  }
+
+  int getBadge() {
+    return badge;
+  }
+
+  int getColor() {
+    return color;
+  }
+
+  boolean isOngoing() {
+    return ongoing;
+  }
+
+  int getPriority() {
+    return priority;
+  }
+
+  boolean isLaunch() {
+    return launch;
+  }
+
+  boolean hasSound() {
+    return sound;
+  }
+
+  boolean hasNotificationLed() {
+    return notificationLed;
+  }
+
+  int getLedColor() {
+    return ledColor;
+  }
+
+  /**
+   * Whether an update (ie. of the progress) should only make a sound or vibrate if the notification isn't shown yet.
+   */
+  boolean isOnlyAlertOnce() {
+    return onlyAlertOnce;
+  }
+
+  boolean hasProgress() {
+    return progress;
+  }
+
+  int getProgress() {
+    return progressValue;
+  }
+
+  int getProgressMax() {
+    return progressMax;
+  }
+
+  boolean isProgressIndeterminate() {
+    return progressIndeterminate;
+  }
+
+  // Style:
+
+  /**
+   * Source (res:// or http) of the thumbnail, or null if none is set or the image is used as thumbnail.
+   */
+  @Nullable String getThumbnail() {
+    return thumbnail;
+  }
+
+  boolean isImageAsThumbnail() {
+    return imageAsThumbnail;
+  }
+
+  @Nullable String getImage() {
+    return image;
+  }
+
+  boolean isBigTextStyle() {
+    return bigTextStyle;
+  }
+
+  boolean isGrouped() {
+    return grouped;
+  }
+
+  /**
+   * The grouped messages, or null if they are not set or not an array. Don't modify it.
+   */
+  @Nullable String[] getGroupedMessages() {
+    return groupedMessages;
+  }
+
+  @Nullable String getGroupSummary() {
+    return groupSummary;
+  }
+
+  // Actions:
+
+  @Nullable String getActionGroupId() {
+    return actionGroupId;
+  }
+
+  /**
+   * Inline action definitions, or null. Don't modify them.
+   */
+  @Nullable JSONArray getActions() {
+    return actions;
+  }
+
+  /**
+   * The inline actions, parsed once and kept with the spec, or null.
+   */
+  @Nullable ActionGroup getActionGroup(Context context) {
+    if (actions == null || actions.length() == 0) {
+      return null;
+    }
+
+    // Parsing it twice in a race is harmless:
+    if (actionGroup == null) {
+      actionGroup = ActionGroup.parse(context, actions);
+    }
+
+    return actionGroup;
+  }
+
+  // Serialization:
+
+  /**
+   * @return A copy of the original options, which the caller is free to modify
+   */
+  JSONObject toJSON() {
+    return copy(options);
+  }
+
+  String toJSONString() {
+    return options.toString();
+  }
+
+  /**
+   * Hash of the options that are rendered, to tell whether an update changes what the notification shows.
+   */
+  String getContentHash() {
+    if (contentHash == null) {
+      final JSONObject content = copy(options);
+      for (String key : SCHEDULING_OPTIONS) {
+        content.remove(key);
+      }
+      contentHash = DiskCache.key(content.toString());
+    }
+
+    return contentHash;
+  }
+
+  // Parsing helpers:
+
+  /**
+   * @return Whether the given notificationLed option turns the lights on: true (default color) or a color, not false
+   */
+  static boolean isLedEnabled(@Nullable Object notificationLed) {
+    return Boolean.TRUE.equals(notificationLed) || notificationLed instanceof Integer;
+  }
+
+  static int parseLedColor(Object notificationLed) {
+    if (Boolean.TRUE.equals(notificationLed)) {
+      return DEFAULT_NOTIFICATION_COLOR;
+    } else if (notificationLed instanceof Integer) {
+      return (int) notificationLed;
+    } else {
+      Log.e(TAG, "Unable to parse option.notificationLed, using default notification color");
+      return DEFAULT_NOTIFICATION_COLOR;
+    }
+  }
+
+  private static @Nullable String[] parseStrings(@Nullable JSONArray array) {
+    if (array == null) {
+      return null;
+    }
+
+    final String[] strings = new String[array.length()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = array.optString(i);
+    }
+    return strings;
+  }
+
+  private static String[] parseTags(@Nullable JSONArray array, @Nullable String groupKey) {
+    final Set<String> tags = new LinkedHashSet<String>();
+
+    if (array != null) {
+      for (int i = 0; i < array.length(); i++) {
+        final String tag = array.optString(i, null);
+        if (tag != null && !tag.isEmpty()) {
+          tags.add(tag);
+        }
+      }
+    }
+
+    if (groupKey != null && !groupKey.isEmpty()) {
+      tags.add(groupKey);
+    }
+
+    return tags.toArray(new String[0]);
+  }
+
+  /**
+   * Deep copy of the given options, so nested ones (ie. actions, tags or groupedMessages) aren't shared either.
+   */
+  private static JSONObject copy(JSONObject options) {
+    final JSONObject copy = new JSONObject();
+
+    try {
+      for (Iterator<String> it = options.keys(); it.hasNext(); ) {
+        final String name = it.next();
+        copy.put(name, copyValue(options.opt(name)));
+      }
+    } catch (JSONException e) {
+      // Can't happen, the values were valid in the source object.
+      Log.e(TAG, "Error copying options " + e.getMessage(), e);
+    }
+
+    return copy;
+  }
+
+  private static Object copyValue(Object value) throws JSONException {
+    if (value instanceof JSONObject) {
+      return copy((JSONObject) value);
+    }
+
+    if (value instanceof JSONArray) {
+      final JSONArray array = (JSONArray) value;
+      final JSONArray copy = new JSONArray();
+      for (int i = 0; i < array.length(); i++) {
+        copy.put(copyValue(array.opt(i)));
+      }
+      return copy;
+    }
+
+    // Strings, numbers, booleans and NULL are immutable:
+    return value;
+  }
+}
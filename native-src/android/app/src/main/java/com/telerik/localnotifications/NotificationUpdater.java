@@ -0,0 +1,277 @@
+package com.telerik.localnotifications;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partial updates of existing notifications, ie. to stream the progress of a download into one.
+ *
+ * An update is merged into the stored options. A notification that is due is shown again, unless what it shows
+ * didn't change: the rendered options are hashed (see {@link NotificationSpec#getContentHash()}), and a notification
+ * whose hash is the same as the one it was last posted with isn't built nor posted again. One that is due later is
+ * just rescheduled with its new options.
+ *
+ * Updates that only change the progress are throttled to a frame rate: one that comes less than a frame after the
+ * last post is held back, and posted (along with any that follow it in the meantime) when the frame comes.
+ *
+ * Updates are merged and stored under a lock, so none is lost to a concurrent one, but notifications are built (which
+ * may decode images) and posted outside of it. A build that is overtaken by a later update isn't posted.
+ */
+final class NotificationUpdater {
+
+  private static final String TAG = "NotificationUpdater";
+
+  // Frames per second. Posts go through NotificationPoster too, so more than its rate is no use:
+  static final int DEFAULT_FRAME_RATE = 4;
+
+  static final String POSTED = "posted";
+  static final String UNCHANGED = "unchanged";
+  static final String THROTTLED = "throttled";
+  static final String SCHEDULED = "scheduled";
+  static final String NOT_FOUND = "notFound";
+
+  private static final String[] PROGRESS_OPTIONS = { "progress", "progressMax", "progressIndeterminate" };
+
+  private static NotificationUpdater instance;
+
+  private final ScheduledExecutorService executor;
+
+  // Content hash each notification was last posted with, by id:
+  private final Map<Integer, String> postedHashes = new HashMap<Integer, String>();
+  // When (elapsedRealtime) each notification was last posted, by id:
+  private final Map<Integer, Long> postedAt = new HashMap<Integer, Long>();
+  // Options each notification was last updated with, by id, to tell when an update is overtaken by a later one:
+  private final Map<Integer, NotificationSpec> latest = new HashMap<Integer, NotificationSpec>();
+  // Options of the throttled notifications, waiting for their next frame, by id:
+  private final Map<Integer, JSONObject> throttled = new HashMap<Integer, JSONObject>();
+
+  private long updates;
+  private long unchanged;
+  private long held;
+
+  static synchronized NotificationUpdater get() {
+    if (instance == null) {
+      instance = new NotificationUpdater();
+    }
+
+    return instance;
+  }
+
+  private NotificationUpdater() {
+    executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "NotificationUpdater");
+      }
+    });
+  }
+
+  /**
+   * Merge the given options into those of the given notification, and show or reschedule it.
+   *
+   * @param context
+   * @param id
+   * @param partialOptions Options to change, as passed to scheduleNotification. Set one to null to remove it.
+   * @return One of POSTED, UNCHANGED, THROTTLED, SCHEDULED or NOT_FOUND
+   */
+  String update(Context context, int id, JSONObject partialOptions) throws JSONException {
+    final NotificationSpec spec;
+
+    synchronized (this) {
+      updates++;
+
+      // A throttled update hasn't been stored yet:
+      JSONObject options = throttled.get(id);
+      if (options == null) {
+        options = Store.get(context, id);
+      }
+
+      if (options == null) {
+        return NOT_FOUND;
+      }
+
+      final Iterator<String> keys = partialOptions.keys();
+      while (keys.hasNext()) {
+        final String key = keys.next();
+        final Object value = partialOptions.opt(key);
+
+        if (value == null || value == JSONObject.NULL) {
+          options.remove(key);
+        } else {
+          options.put(key, value);
+        }
+      }
+
+      // The id can't change:
+      options.put("id", id);
+
+      final Long lastPost = postedAt.get(id);
+      final long frame = 1000 / Math.max(PluginConfig.getProgressFrameRate(context), 1);
+      final long sinceLastPost = lastPost == null ? frame : SystemClock.elapsedRealtime() - lastPost;
+
+      if (isProgressOnly(partialOptions) && sinceLastPost < frame) {
+        if (throttled.put(id, options) == null) {
+          scheduleFrame(context.getApplicationContext() != null ? context.getApplicationContext() : context, id, frame - sinceLastPost);
+        }
+
+        held++;
+        return THROTTLED;
+      }
+
+      // Supersedes the throttled one, if any:
+      throttled.remove(id);
+
+      spec = store(context, id, options);
+    }
+
+    return show(context, spec);
+  }
+
+  /**
+   * Forget what the given notification was last posted with, ie. because it was cancelled or scheduled again.
+   */
+  synchronized void forget(int id) {
+    postedHashes.remove(id);
+    postedAt.remove(id);
+    latest.remove(id);
+    throttled.remove(id);
+  }
+
+  /**
+   * @return { updates, unchanged, throttled }
+   */
+  synchronized JSONObject getStats() {
+    final JSONObject stats = new JSONObject();
+    try {
+      stats.put("updates", updates)
+          .put("unchanged", unchanged)
+          .put("throttled", held);
+    } catch (JSONException e) {
+      Log.e(TAG, "Error building update stats" + e.getMessage(), e);
+    }
+    return stats;
+  }
+
+  /**
+   * Store the merged options. Called with the lock held, so updates are stored in the order they're merged.
+   */
+  private NotificationSpec store(Context context, int id, JSONObject options) {
+    final NotificationSpec spec = NotificationSpec.fromJSON(options);
+    Store.save(context, id, spec);
+    latest.put(id, spec);
+    return spec;
+  }
+
+  /**
+   * Reschedule the stored notification, or build and post it unless it's unchanged. Called without the lock.
+   */
+  private String show(Context context, NotificationSpec spec) {
+    final int id = spec.getId();
+    final String contentHash;
+
+    synchronized (this) {
+      // Overtaken by a later update before it got here (which shows its own), or cancelled:
+      if (latest.get(id) != spec) {
+        return POSTED;
+      }
+
+      if (spec.getAtTime() > System.currentTimeMillis()) {
+        // Not shown yet, so it only needs its alarm moved (or kept) for the new options:
+        postedHashes.remove(id);
+        NotificationRestoreReceiver.scheduleNotification(spec, context);
+        return SCHEDULED;
+      }
+
+      contentHash = spec.getContentHash();
+
+      if (contentHash.equals(postedHashes.get(id))) {
+        unchanged++;
+        return UNCHANGED;
+      }
+
+      postedHashes.put(id, contentHash);
+      postedAt.put(id, SystemClock.elapsedRealtime());
+    }
+
+    final Notification notification = Builder.build(spec, context, id);
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+    synchronized (this) {
+      // Overtaken by a later update with other contents while it was being built, or cancelled:
+      if (!contentHash.equals(postedHashes.get(id))) {
+        return POSTED;
+      }
+
+      NotificationPoster.get().post(notificationManager, id, notification);
+    }
+
+    GroupSummaries.get().posted(context, notificationManager, spec);
+    return POSTED;
+  }
+
+  private void scheduleFrame(final Context context, final int id, long delay) {
+    executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final NotificationSpec spec;
+
+          synchronized (NotificationUpdater.this) {
+            final JSONObject options = throttled.remove(id);
+
+            // Unless a later update was posted right away, or the notification was cancelled:
+            if (options == null) {
+              return;
+            }
+
+            spec = store(context, id, options);
+          }
+
+          show(context, spec);
+        } catch (Throwable t) {
+          Log.e(TAG, "Error updating notification " + id + ": " + t.getMessage(), t);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private static boolean isProgressOnly(JSONObject partialOptions) {
+    final Iterator<String> keys = partialOptions.keys();
+
+    if (!keys.hasNext()) {
+      return false;
+    }
+
+    while (keys.hasNext()) {
+      if (!isProgressOption(keys.next())) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isProgressOption(String key) {
+    for (String option : PROGRESS_OPTIONS) {
+      if (option.equals(key)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
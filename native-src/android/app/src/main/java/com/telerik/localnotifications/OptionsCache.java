@@ -0,0 +1,52 @@
+package com.telerik.localnotifications;
+
+import androidx.annotation.Nullable;
+import android.util.LruCache;
+
+/**
+ * Size-bounded LRU cache of parsed notification options, so hot (ie. repeating) notifications don't need
+ * their JSON re-parsed every time a receiver loads them from the {@link Store}.
+ *
+ * Entries are immutable {@link NotificationSpec}s, so they can be handed out without copying.
+ */
+final class OptionsCache {
+
+  static final int DEFAULT_MAX_ENTRIES = 128;
+
+  private final LruCache<Integer, NotificationSpec> cache;
+
+  OptionsCache(int maxEntries) {
+    cache = new LruCache<Integer, NotificationSpec>(maxEntries);
+  }
+
+  /**
+   * @return The cached options for the given id, or null if they are not cached (which counts as a miss)
+   */
+  @Nullable NotificationSpec get(int id) {
+    return cache.get(id);
+  }
+
+  void put(int id, NotificationSpec spec) {
+    cache.put(id, spec);
+  }
+
+  void invalidate(int id) {
+    cache.remove(id);
+  }
+
+  int hitCount() {
+    return cache.hitCount();
+  }
+
+  int missCount() {
+    return cache.missCount();
+  }
+
+  int size() {
+    return cache.size();
+  }
+
+  int maxSize() {
+    return cache.maxSize();
+  }
+}
@@ -0,0 +1,216 @@
+package com.telerik.localnotifications;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+/**
+ * Plugin settings that need to outlive the process, as they are also read by the receivers (ie. after a reboot).
+ */
+final class PluginConfig {
+
+  private static final String TAG = "PluginConfig";
+
+  private static final String SHARED_PREFERENCES_KEY = "LocalNotificationsPluginConfig";
+
+  private static final String SINGLE_ALARM_KEY = "singleAlarm";
+  private static final String RESTORE_KEY = "restore";
+  private static final String LAZY_RESTORE_COUNT_KEY = "lazyRestoreCount";
+  private static final String LAZY_RESTORE_HORIZON_KEY = "lazyRestoreHorizon";
+  private static final String ARMED_UNTIL_KEY = "armedUntil";
+  private static final String BATCH_WINDOW_KEY = "batchWindow";
+  private static final String LARGE_ICON_SIZE_KEY = "largeIconSize";
+  private static final String BIG_PICTURE_WIDTH_KEY = "bigPictureWidth";
+  private static final String REDUCED_IMAGE_COLORS_KEY = "reducedImageColors";
+  private static final String PROGRESS_FRAME_RATE_KEY = "progressFrameRate";
+  private static final String GROUP_SUMMARY_THRESHOLD_KEY = "groupSummaryThreshold";
+
+  private static volatile Boolean singleAlarm;
+
+  private PluginConfig() {
+  }
+
+  /**
+   * @return Whether notifications are scheduled with a single alarm (see {@link AlarmScheduler})
+   */
+  static boolean isSingleAlarm(Context context) {
+    if (singleAlarm == null) {
+      singleAlarm = context
+          .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+          .getBoolean(SINGLE_ALARM_KEY, false);
+    }
+
+    return singleAlarm;
+  }
+
+  static void setSingleAlarm(Context context, boolean enabled) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putBoolean(SINGLE_ALARM_KEY, enabled)
+        .apply();
+
+    singleAlarm = enabled;
+  }
+
+  /**
+   * @return Stats of the last (or current, if it's still in progress) boot restore, or null if there was none
+   */
+  static @Nullable JSONObject getRestoreStats(Context context) {
+    final String stats = context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getString(RESTORE_KEY, null);
+
+    if (stats != null) {
+      try {
+        return new JSONObject(stats);
+      } catch (Throwable e) {
+        Log.e(TAG, "Error parsing restore stats" + e.getMessage(), e);
+      }
+    }
+
+    return null;
+  }
+
+  static void setRestoreStats(Context context, JSONObject stats) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putString(RESTORE_KEY, stats.toString())
+        .commit();
+  }
+
+  /**
+   * @return Maximum number of alarms a lazy restore arms at once, 0 if unlimited
+   */
+  static int getLazyRestoreCount(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getInt(LAZY_RESTORE_COUNT_KEY, 0);
+  }
+
+  /**
+   * @return How far ahead (in ms) a lazy restore arms alarms, 0 if unlimited
+   */
+  static long getLazyRestoreHorizon(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getLong(LAZY_RESTORE_HORIZON_KEY, 0);
+  }
+
+  static void setLazyRestore(Context context, int count, long horizon) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putInt(LAZY_RESTORE_COUNT_KEY, count)
+        .putLong(LAZY_RESTORE_HORIZON_KEY, horizon)
+        .apply();
+  }
+
+  /**
+   * @return Trigger time up to which (exclusive) the lazily restored alarms are armed, 0 if they all are
+   */
+  static long getArmedUntil(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getLong(ARMED_UNTIL_KEY, 0);
+  }
+
+  static void setArmedUntil(Context context, long armedUntil) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putLong(ARMED_UNTIL_KEY, armedUntil)
+        .commit();
+  }
+
+  /**
+   * @return Width (in ms) of the windows whose notifications share an alarm (see {@link AlarmBatcher}), 0 if they don't
+   */
+  static long getBatchWindow(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getLong(BATCH_WINDOW_KEY, 0);
+  }
+
+  static void setBatchWindow(Context context, long window) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putLong(BATCH_WINDOW_KEY, window)
+        .apply();
+  }
+
+  /**
+   * @return Size (in px) large icons are decoded at, 0 for the default (see {@link ImageSlot})
+   */
+  static int getLargeIconSize(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getInt(LARGE_ICON_SIZE_KEY, 0);
+  }
+
+  /**
+   * @return Width (in px) big pictures are decoded at, 0 for the default (see {@link ImageSlot})
+   */
+  static int getBigPictureWidth(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getInt(BIG_PICTURE_WIDTH_KEY, 0);
+  }
+
+  /**
+   * @return Whether images are decoded as RGB_565 rather than ARGB_8888
+   */
+  static boolean isReducedImageColors(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getBoolean(REDUCED_IMAGE_COLORS_KEY, false);
+  }
+
+  static void setImageDecoding(Context context, int largeIconSize, int bigPictureWidth, boolean reducedColors) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putInt(LARGE_ICON_SIZE_KEY, largeIconSize)
+        .putInt(BIG_PICTURE_WIDTH_KEY, bigPictureWidth)
+        .putBoolean(REDUCED_IMAGE_COLORS_KEY, reducedColors)
+        .apply();
+  }
+
+  /**
+   * @return Maximum number of progress updates per second a notification gets (see {@link NotificationUpdater})
+   */
+  static int getProgressFrameRate(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getInt(PROGRESS_FRAME_RATE_KEY, NotificationUpdater.DEFAULT_FRAME_RATE);
+  }
+
+  static void setProgressFrameRate(Context context, int frameRate) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putInt(PROGRESS_FRAME_RATE_KEY, frameRate)
+        .apply();
+  }
+
+  /**
+   * @return Number of notifications a group needs to get a summary (see {@link GroupSummaries}), 0 if they don't
+   */
+  static int getGroupSummaryThreshold(Context context) {
+    return context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .getInt(GROUP_SUMMARY_THRESHOLD_KEY, GroupSummaries.DEFAULT_THRESHOLD);
+  }
+
+  static void setGroupSummaryThreshold(Context context, int threshold) {
+    context
+        .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
+        .edit()
+        .putInt(GROUP_SUMMARY_THRESHOLD_KEY, threshold)
+        .apply();
+  }
+}
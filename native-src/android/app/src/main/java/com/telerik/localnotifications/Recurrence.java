@@ -0,0 +1,227 @@
+package com.telerik.localnotifications;
+
+import androidx.annotation.Nullable;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Repeat rule of a notification, anchored at its initial trigger time (atTime).
+ *
+ * Seconds, minutes and hours repeat at a fixed interval. Days, weeks, months, quarters, years and weekdays (Monday to
+ * Friday) are calendar units: they repeat at the same local (wall clock) time, so they don't drift when DST starts
+ * or ends, and months keep their day of the month (clamped to the length of shorter months, ie. the 31st fires on
+ * the last day of those).
+ *
+ * Occurrences are computed directly from their index, so finding the next one takes the same time no matter how
+ * long ago the rule started (ie. catching up after a long downtime never iterates over the missed occurrences).
+ */
+final class Recurrence {
+
+  private static final int FIXED = 0;
+  private static final int DAY = 1;
+  private static final int MONTH = 2;
+  private static final int WEEKDAY = 3;
+
+  private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+  private final int unit;
+  // Interval in ms for FIXED, in days for DAY and in months for MONTH:
+  private final long step;
+  private final long start;
+
+  private Recurrence(int unit, long step, long start) {
+    this.unit = unit;
+    this.step = step;
+    this.start = start;
+  }
+
+  /**
+   * Get the rule for the given options.
+   *
+   * @param interval Named interval (options.interval), if any
+   * @param repeatInterval Fixed interval in ms (options.repeatInterval), used if there is no (known) named interval
+   * @param start Initial trigger time (epoch millis)
+   * @return The rule, or null if the notification doesn't repeat
+   */
+  static @Nullable Recurrence parse(@Nullable String interval, long repeatInterval, long start) {
+    if ("second".equals(interval)) {
+      return new Recurrence(FIXED, 1000, start);
+    } else if ("minute".equals(interval)) {
+      return new Recurrence(FIXED, 60 * 1000, start);
+    } else if ("hour".equals(interval)) {
+      return new Recurrence(FIXED, 60 * 60 * 1000, start);
+    } else if ("day".equals(interval)) {
+      return new Recurrence(DAY, 1, start);
+    } else if ("week".equals(interval)) {
+      return new Recurrence(DAY, 7, start);
+    } else if ("weekday".equals(interval)) {
+      return new Recurrence(WEEKDAY, 1, start);
+    } else if ("month".equals(interval)) {
+      return new Recurrence(MONTH, 1, start);
+    } else if ("quarter".equals(interval)) {
+      return new Recurrence(MONTH, 3, start);
+    } else if ("year".equals(interval)) {
+      return new Recurrence(MONTH, 12, start);
+    } else if (repeatInterval > 0) {
+      return new Recurrence(FIXED, repeatInterval, start);
+    }
+
+    return null;
+  }
+
+  /**
+   * @return Whether the occurrences are not a fixed interval apart, so they can't use a repeating alarm
+   */
+  boolean isCalendar() {
+    return unit != FIXED;
+  }
+
+  /**
+   * @return The interval between occurrences in ms, exact for fixed intervals and approximate for calendar units
+   */
+  long getPeriod() {
+    switch (unit) {
+      case FIXED:
+        return step;
+      case MONTH:
+        return step * 30 * DAY_MS;
+      default:
+        return step * DAY_MS;
+    }
+  }
+
+  /**
+   * @return The first occurrence strictly after the given time
+   */
+  long nextOccurrenceAfter(long time) {
+    if (unit == FIXED) {
+      return time < start ? start : start + ((time - start) / step + 1) * step;
+    }
+
+    final Calendar calendar = newCalendar();
+    long k = Math.max(0, floorDiv(index(calendar, time), step));
+    long occurrence = occurrence(calendar, k);
+
+    // At most a few steps, as the index is that of the occurrence on (or just before) the given day:
+    while (occurrence <= time || !matches(calendar)) {
+      occurrence = occurrence(calendar, ++k);
+    }
+
+    return occurrence;
+  }
+
+  /**
+   * @return The last occurrence at or before the given time, or 0 if there's none
+   */
+  long lastOccurrenceAtOrBefore(long time) {
+    if (time < start) {
+      return 0;
+    }
+
+    if (unit == FIXED) {
+      return start + ((time - start) / step) * step;
+    }
+
+    final Calendar calendar = newCalendar();
+    long k = floorDiv(index(calendar, time), step);
+    long occurrence = occurrence(calendar, k);
+
+    while (occurrence > time || !matches(calendar)) {
+      if (--k < 0) {
+        return 0;
+      }
+      occurrence = occurrence(calendar, k);
+    }
+
+    return occurrence;
+  }
+
+  /**
+   * @return Number of occurrences in (after, upTo], without going through them
+   */
+  long countBetween(long after, long upTo) {
+    return upTo <= after ? 0 : countAtOrBefore(upTo) - countAtOrBefore(after);
+  }
+
+  private long countAtOrBefore(long time) {
+    if (time < start) {
+      return 0;
+    }
+
+    if (unit == FIXED) {
+      return (time - start) / step + 1;
+    }
+
+    final Calendar calendar = newCalendar();
+    final long index = index(calendar, time);
+    // Index of the last occurrence (or candidate day, for weekdays) at or before the given time:
+    long k = floorDiv(index, unit == WEEKDAY ? 1 : step);
+    if (occurrence(calendar, k) > time) {
+      k--;
+    }
+
+    if (unit != WEEKDAY) {
+      return k + 1;
+    }
+
+    // Five weekdays in every full week, plus those among the remaining (less than 7) days:
+    final long days = k + 1;
+    long count = days / 7 * 5;
+    calendar.setTimeInMillis(start);
+    for (long i = days / 7 * 7; i < days; i++) {
+      if (matches(calendar)) {
+        count++;
+      }
+      calendar.add(Calendar.DAY_OF_MONTH, 1);
+    }
+    return count;
+  }
+
+  // Calendar units:
+
+  private Calendar newCalendar() {
+    // Wall clock times are in the current time zone, so they follow the device when it moves:
+    return new GregorianCalendar(TimeZone.getDefault());
+  }
+
+  /**
+   * @return Number of units (days or months) from the start to the given time
+   */
+  private long index(Calendar calendar, long time) {
+    if (unit == MONTH) {
+      calendar.setTimeInMillis(time);
+      final long months = calendar.get(Calendar.YEAR) * 12L + calendar.get(Calendar.MONTH);
+      calendar.setTimeInMillis(start);
+      return months - (calendar.get(Calendar.YEAR) * 12L + calendar.get(Calendar.MONTH));
+    }
+
+    final TimeZone timeZone = calendar.getTimeZone();
+    return floorDiv(time + timeZone.getOffset(time), DAY_MS) - floorDiv(start + timeZone.getOffset(start), DAY_MS);
+  }
+
+  /**
+   * @return The k-th occurrence (leaving the calendar set to it), which for weekdays may fall on a weekend
+   */
+  private long occurrence(Calendar calendar, long k) {
+    calendar.setTimeInMillis(start);
+    calendar.add(unit == MONTH ? Calendar.MONTH : Calendar.DAY_OF_MONTH, (int) (k * step));
+    return calendar.getTimeInMillis();
+  }
+
+  // Math.floorDiv needs API level 24:
+  private static long floorDiv(long x, long y) {
+    final long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+
+  private boolean matches(Calendar calendar) {
+    if (unit != WEEKDAY) {
+      return true;
+    }
+
+    final int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+    return dayOfWeek != Calendar.SATURDAY && dayOfWeek != Calendar.SUNDAY;
+  }
+}
@@ -0,0 +1,81 @@
+package com.telerik.localnotifications;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Ids of the app's drawables by name.
+ *
+ * Resources.getIdentifier is a slow lookup by name, and the same few icons and images are used by most notifications,
+ * so each name is only looked up once per process. Names that don't exist are cached too (as 0).
+ */
+final class ResourceCache {
+
+  private static final String TAG = "ResourceCache";
+
+  static final String RESOURCE_PREFIX = "res://";
+
+  // Default notification icons, see getIcon:
+  private static final String SILHOUETTE_ICON = "ic_stat_notify_silhouette";
+  private static final String ICON = "ic_stat_notify";
+
+  private static final Map<String, Integer> drawables = new ConcurrentHashMap<>();
+
+  private ResourceCache() {
+  }
+
+  /**
+   * Look up the default notification icons ahead of the first notification.
+   */
+  static void warmUp(Context context) {
+    getDrawable(context, SILHOUETTE_ICON);
+    getDrawable(context, ICON);
+
+    Log.d(TAG, "Cached " + drawables.size() + " drawables");
+  }
+
+  /**
+   * @param name Name of the drawable, with or without the res:// prefix
+   * @return Its id, or 0 if there's none
+   */
+  static int getDrawable(Context context, String name) {
+    if (name.startsWith(RESOURCE_PREFIX)) {
+      name = name.substring(RESOURCE_PREFIX.length());
+    }
+
+    Integer id = drawables.get(name);
+
+    if (id == null) {
+      id = context.getResources().getIdentifier(name, "drawable", context.getApplicationInfo().packageName);
+      drawables.put(name, id);
+    }
+
+    return id;
+  }
+
+  /**
+   * Resolve the small icon of a notification: the given res:// drawable if it exists, otherwise ic_stat_notify_silhouette
+   * (Android 5+), ic_stat_notify or the app's icon, in this order.
+   *
+   * @param icon res:// location of the icon, or null
+   */
+  static int getIcon(Context context, @Nullable String icon) {
+    int id = icon != null && icon.startsWith(RESOURCE_PREFIX) ? getDrawable(context, icon) : 0;
+
+    if (id == 0 && SDK_INT >= 21) {
+      id = getDrawable(context, SILHOUETTE_ICON);
+    }
+
+    if (id == 0) {
+      id = getDrawable(context, ICON);
+    }
+
+    return id != 0 ? id : context.getApplicationInfo().icon;
+  }
+}
@@ -0,0 +1,185 @@
+package com.telerik.localnotifications;
+
+import android.app.AlarmManager;
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Restores the notifications after a reboot on a background thread, while the {@link NotificationRestoreReceiver}
+ * broadcast is kept alive with goAsync.
+ *
+ * Notifications are processed in id order, in chunks. Once a chunk is done and the time budget is spent, the
+ * position is persisted and the receiver is sent a resume broadcast to go on with the rest, so that a large store
+ * can't make the boot broadcast time out.
+ *
+ * With a lazy restore (see {@link RestoreWindow}) only the nearest alarms are armed, in a single pass.
+ *
+ * The duration and counts are logged and kept in {@link PluginConfig} (see LocalNotificationsPlugin.getRestoreStats).
+ */
+final class RestoreTask implements Runnable {
+
+  private static final String TAG = "RestoreTask";
+
+  static final String ACTION_RESUME = "com.telerik.localnotifications.ACTION_RESUME_RESTORE";
+
+  private static final int CHUNK_SIZE = 50;
+
+  // Well below the time the system gives a broadcast receiver (even with goAsync) before it's considered an ANR:
+  private static final long TIME_BUDGET_MS = 5000;
+
+  private final Context context;
+  private final BroadcastReceiver.PendingResult result;
+  private final boolean resume;
+  private final boolean refill;
+
+  private RestoreTask(Context context, BroadcastReceiver.PendingResult result, boolean resume, boolean refill) {
+    this.context = context;
+    this.result = result;
+    this.resume = resume;
+    this.refill = refill;
+  }
+
+  /**
+   * Start (or resume) restoring the notifications, finishing the given broadcast when done.
+   *
+   * @param context
+   * @param result Result of goAsync in the receiver's onReceive
+   * @param resume Whether to go on from where the previous pass stopped, rather than starting over
+   */
+  static void start(Context context, BroadcastReceiver.PendingResult result, boolean resume) {
+    new Thread(new RestoreTask(context, result, resume, false), "NotificationRestore").start();
+  }
+
+  /**
+   * Arm the next window of a lazy restore (see {@link RestoreWindow}), finishing the given broadcast when done.
+   *
+   * @param context
+   * @param result Result of goAsync in the receiver's onReceive
+   */
+  static void refill(Context context, BroadcastReceiver.PendingResult result) {
+    new Thread(new RestoreTask(context, result, false, true), "NotificationRestore").start();
+  }
+
+  @Override
+  public void run() {
+    try {
+      if (refill) {
+        RestoreWindow.refill(context);
+      } else {
+        restore();
+      }
+    } catch (Throwable e) {
+      Log.e(TAG, "Notifications could not be restored! " + e.getMessage(), e);
+    } finally {
+      NotificationPoster.finish(context, result);
+    }
+  }
+
+  private void restore() throws JSONException {
+    final long start = SystemClock.elapsedRealtime();
+    final JSONObject previous = resume ? PluginConfig.getRestoreStats(context) : null;
+    final JSONObject stats = previous != null && previous.has("cursor") ? previous : new JSONObject()
+        .put("total", Store.getKeys(context).length)
+        .put("restored", 0)
+        .put("failed", 0)
+        .put("passes", 0)
+        .put("durationMs", 0);
+
+    if (AlarmScheduler.isEnabled(context)) {
+      // The schedule is already in the store, only the missed notifications need to be looked at:
+      AlarmScheduler.restore(context);
+      finish(stats.put("restored", stats.getInt("total")), start);
+      return;
+    }
+
+    if (RestoreWindow.isEnabled(context)) {
+      // Only the missed notifications and the nearest alarms, the rest is armed as the window moves on:
+      finish(stats.put("restored", RestoreWindow.restore(context)).put("lazy", true), start);
+      return;
+    }
+
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    final CatchUp catchUp = new CatchUp();
+    final int[] ids = StoreLog.get(context).ids();
+    Arrays.sort(ids);
+
+    int i = 0;
+    if (stats.has("cursor")) {
+      final int found = Arrays.binarySearch(ids, stats.getInt("cursor"));
+      i = found >= 0 ? found + 1 : -found - 1;
+    }
+
+    int restored = stats.getInt("restored");
+    int failed = stats.getInt("failed");
+
+    while (i < ids.length) {
+      final int end = Math.min(i + CHUNK_SIZE, ids.length);
+
+      for (; i < end; i++) {
+        final NotificationSpec spec = Store.getSpec(context, ids[i]);
+        boolean ok = false;
+
+        if (spec != null) {
+          Log.d(TAG, "Process previously scheduled notification " + ids[i]);
+          try {
+            ok = NotificationRestoreReceiver.scheduleNotification(spec, context, notificationManager, alarmManager, catchUp, false);
+          } catch (Throwable e) {
+            Log.e(TAG, "Notification " + ids[i] + " could not be processed! " + e.getMessage(), e);
+          }
+        }
+
+        if (ok) {
+          restored++;
+        } else {
+          failed++;
+        }
+      }
+
+      if (i < ids.length && SystemClock.elapsedRealtime() - start >= TIME_BUDGET_MS) {
+        stats.put("restored", restored).put("failed", failed).put("cursor", ids[i - 1]);
+        catchUp.post(context, notificationManager);
+        pause(stats, start);
+        return;
+      }
+    }
+
+    stats.remove("cursor");
+    catchUp.post(context, notificationManager);
+    finish(stats.put("restored", restored).put("failed", failed), start);
+  }
+
+  /**
+   * Persist the progress and ask the receiver to go on with the rest in a new broadcast.
+   */
+  private void pause(JSONObject stats, long start) throws JSONException {
+    addPass(stats, start);
+    Log.i(TAG, "Restore paused after " + stats.getInt("restored") + " of " + stats.getInt("total") + " notifications");
+
+    // Make sure the store is up to date before anything else picks up from the cursor:
+    Store.flush(context);
+    context.sendBroadcast(new Intent(context, NotificationRestoreReceiver.class).setAction(ACTION_RESUME));
+  }
+
+  private void finish(JSONObject stats, long start) throws JSONException {
+    stats.put("finishedAt", System.currentTimeMillis());
+    addPass(stats, start);
+    Log.i(TAG, "Restored " + stats.getInt("restored") + " notifications (" + stats.getInt("failed") + " failed) in "
+        + stats.getLong("durationMs") + "ms, " + stats.getInt("passes") + " passes");
+  }
+
+  private void addPass(JSONObject stats, long start) throws JSONException {
+    stats.put("passes", stats.getInt("passes") + 1)
+        .put("durationMs", stats.getLong("durationMs") + SystemClock.elapsedRealtime() - start);
+    PluginConfig.setRestoreStats(context, stats);
+  }
+}
@@ -0,0 +1,161 @@
+package com.telerik.localnotifications;
+
+import android.app.AlarmManager;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Lazy restore: instead of re-arming the alarm of every stored notification after a reboot, only arm those in a
+ * window made of the nearest N trigger times and/or the ones within a horizon. A refill alarm, set for the last
+ * notification in the window, arms the next window when it fires, so a restore costs about the same no matter how
+ * many notifications are scheduled.
+ *
+ * The store's trigger index provides the windows. Notifications scheduled while the app runs are armed right away,
+ * as usual. Notifications which were shown immediately (no atTime) are not posted again after a reboot.
+ */
+final class RestoreWindow {
+
+  private static final String TAG = "RestoreWindow";
+
+  static final String ACTION_REFILL = "com.telerik.localnotifications.ACTION_REFILL";
+
+  private RestoreWindow() {
+  }
+
+  static boolean isEnabled(Context context) {
+    return PluginConfig.getLazyRestoreCount(context) > 0 || PluginConfig.getLazyRestoreHorizon(context) > 0;
+  }
+
+  /**
+   * Set the size of the window. Disabling it arms whatever a previous window left out.
+   *
+   * @param context
+   * @param count Maximum number of alarms to arm, 0 for no limit
+   * @param horizon How far ahead to arm alarms (ms), 0 for no limit
+   */
+  static void configure(Context context, int count, long horizon) {
+    PluginConfig.setLazyRestore(context, Math.max(count, 0), Math.max(horizon, 0));
+
+    final long armedUntil = PluginConfig.getArmedUntil(context);
+    if (!isEnabled(context) && armedUntil != 0) {
+      fill(context, armedUntil);
+    }
+  }
+
+  /**
+   * Restore after a reboot: process the notifications that became due while the device was off (showing the
+   * missed ones), then arm the first window.
+   *
+   * @param context
+   * @return Number of notifications processed
+   */
+  static int restore(Context context) {
+    final long now = System.currentTimeMillis();
+    final int missed = schedule(context, Store.getDueBetween(context, 1, now), false);
+
+    return missed + fill(context, now);
+  }
+
+  /**
+   * Arm the next window. Called when the refill alarm fires.
+   *
+   * @param context
+   * @return Number of notifications processed
+   */
+  static int refill(Context context) {
+    final long now = System.currentTimeMillis();
+    final long armedUntil = PluginConfig.getArmedUntil(context);
+
+    if (armedUntil == 0) {
+      return 0;
+    }
+
+    // In case the refill alarm was late, whatever became due since is handled like after a reboot:
+    final int late = armedUntil < now ? schedule(context, Store.getDueBetween(context, armedUntil, now), false) : 0;
+
+    return late + fill(context, Math.max(armedUntil, now));
+  }
+
+  /**
+   * Arm the window starting at the given time and set the refill alarm for the one after it.
+   *
+   * @return Number of alarms armed
+   */
+  private static int fill(Context context, long from) {
+    final StoreLog log = StoreLog.get(context);
+    final int count = PluginConfig.getLazyRestoreCount(context);
+    final long horizon = PluginConfig.getLazyRestoreHorizon(context);
+
+    long until = horizon > 0 ? from + horizon : Long.MAX_VALUE;
+
+    if (count > 0) {
+      final int[] next = log.nextDue(from, count + 1);
+      if (next.length > count) {
+        // Stop before the first trigger time that doesn't fit, but always take the earliest one (ie. if more
+        // than count notifications share it) so the window can't be empty:
+        until = Math.min(until, Math.max(log.trigger(next[count]), log.trigger(next[0]) + 1));
+      }
+    }
+
+    final int[] window = log.dueBetween(from, until);
+    schedule(context, window, true);
+
+    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    final PendingIntent refillIntent = PendingIntent.getBroadcast(
+        context,
+        0,
+        new Intent(context, NotificationRestoreReceiver.class).setAction(ACTION_REFILL),
+        PendingIntent.FLAG_UPDATE_CURRENT);
+
+    if (!isEnabled(context) || log.nextDue(until, 1).length == 0) {
+      // Everything is armed:
+      alarmManager.cancel(refillIntent);
+      PluginConfig.setArmedUntil(context, 0);
+    } else {
+      // Exact, or the next window could start late:
+      final long refillAt = window.length > 0 ? log.trigger(window[window.length - 1]) : until;
+      alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, refillAt, refillIntent);
+      PluginConfig.setArmedUntil(context, until);
+    }
+
+    Log.i(TAG, "Armed " + window.length + " alarms from " + from + " until " + until);
+    return window.length;
+  }
+
+  /**
+   * Schedule the given notifications as usual.
+   *
+   * @param upcoming Whether they're all in the future, so there's nothing to show yet
+   * @return Number of notifications processed
+   */
+  private static int schedule(Context context, int[] ids, boolean upcoming) {
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    final CatchUp catchUp = upcoming ? null : new CatchUp();
+    int processed = 0;
+
+    for (int id : ids) {
+      final NotificationSpec spec = Store.getSpec(context, id);
+
+      if (spec == null) {
+        continue;
+      }
+
+      try {
+        NotificationRestoreReceiver.scheduleNotification(spec, context, notificationManager, alarmManager, catchUp, upcoming);
+        processed++;
+      } catch (Throwable e) {
+        Log.e(TAG, "Notification " + id + " could not be scheduled! " + e.getMessage(), e);
+      }
+    }
+
+    if (catchUp != null) {
+      catchUp.post(context, notificationManager);
+    }
+
+    return processed;
+  }
+}
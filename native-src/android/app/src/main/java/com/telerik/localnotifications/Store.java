@@ -1,5 +1,6 @@
 package com.telerik.localnotifications;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import androidx.annotation.Nullable;
 import android.util.Log;
@@ -7,21 +8,32 @@ import android.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Application Store facilitating Android SharedPreferences
+ * Application Store
  *
- * Stores notification data as JSON and info to track when alarms have been fired
+ * Stores notification data as JSON in an append-only record log (see {@link StoreLog}), along with the info
+ * to track when alarms have been fired, and keeps the notifications ordered by their next trigger time.
+ * Recently used options are kept parsed (as {@link NotificationSpec}s) in an {@link OptionsCache}.
+ *
+ * Mutations are visible to readers right away but written to disk behind, in batches, by a background thread.
+ * Code that runs while the process may be killed right after (ie. BroadcastReceivers) has to {@link #flush} them.
  */
 public final class Store {
 
     private static final String TAG = "Store";
-    // The plugin uses two key-values stores (private): One for the notifications and one for tracking fired alarms
-    // (in order to determine if an alarm using the alertWhileIdle setting should have been fired while the device was shut off)
-    private static final String SHARED_PREFERENCES_KEY = "LocalNotificationsPlugin";
-    private static final String SHARED_PREFERENCES_ALARMS_FIRED_KEY = "LocalNotificationsPluginAlarmsFired";
+    // The plugin used to have two key-values stores (private): One for the notifications and one for tracking fired alarms
+    // (in order to determine if an alarm using the alertWhileIdle setting should have been fired while the device was shut off).
+    // Both are migrated into the log on first open.
+    static final String SHARED_PREFERENCES_KEY = "LocalNotificationsPlugin";
+    static final String SHARED_PREFERENCES_ALARMS_FIRED_KEY = "LocalNotificationsPluginAlarmsFired";
+
+    // Parsed options of recently used notifications. Also used as the lock that keeps it consistent with the log.
+    private static final OptionsCache cache = new OptionsCache(OptionsCache.DEFAULT_MAX_ENTRIES);
 
     /**
      * Get a notification from the store
@@ -44,17 +56,46 @@ public final class Store {
      * @return
      */
     public static @Nullable JSONObject get(Context context, int id, boolean nullable) {
-        try {
-            return new JSONObject(context
-                .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE)
-                .getString(String.valueOf(id), ""));
-        } catch (Throwable e) {
-            Log.e(TAG, "Error parsing options" + e.getMessage(), e);
+        final NotificationSpec spec = getSpec(context, id);
+
+        if (spec != null) {
+            return spec.toJSON();
         }
 
         return nullable ? null : new JSONObject();
     }
 
+    /**
+     * Get the parsed options of a notification, from the cache if possible
+     *
+     * @param context
+     * @param id
+     * @return
+     */
+    static @Nullable NotificationSpec getSpec(Context context, int id) {
+        synchronized (cache) {
+            final NotificationSpec cached = cache.get(id);
+
+            if (cached != null) {
+                return cached;
+            }
+
+            final String opts = StoreLog.get(context).read(id);
+
+            if (opts != null) {
+                try {
+                    final NotificationSpec spec = NotificationSpec.fromJSON(new JSONObject(opts));
+                    cache.put(id, spec);
+                    return spec;
+                } catch (Throwable e) {
+                    Log.e(TAG, "Error parsing options" + e.getMessage(), e);
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Get a map of all notifications
      *
@@ -62,7 +103,7 @@ public final class Store {
      * @return
      */
     public static Map<String, String> getAll(Context context) {
-        return (Map<String, String>) context.getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE).getAll();
+        return StoreLog.get(context).readAll();
     }
 
     /**
@@ -71,7 +112,15 @@ public final class Store {
      * @return Notification keys
      */
     public static String[] getKeys(Context context) {
-        return getAll(context).keySet().toArray(new String[0]);
+        final StoreLog log = StoreLog.get(context);
+        log.checkWritable();
+
+        final int[] ids = log.ids();
+        final String[] keys = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            keys[i] = String.valueOf(ids[i]);
+        }
+        return keys;
     }
 
     /**
@@ -106,7 +155,54 @@ public final class Store {
      * @param opts
      */
     public static void save(Context context, int id, JSONObject opts) {
-        context.getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE).edit().putString(String.valueOf(id), opts.toString()).apply();
+        save(context, id, NotificationSpec.fromJSON(opts));
+    }
+
+    /**
+     * Save already parsed notification options
+     *
+     * @param context
+     * @param id
+     * @param spec
+     */
+    static void save(Context context, int id, NotificationSpec spec) {
+        synchronized (cache) {
+            StoreLog.get(context).put(new StoreLog.Record(id, spec.toJSONString(), nextTriggerTime(spec, System.currentTimeMillis()), spec.getTags()));
+            cache.put(id, spec);
+        }
+    }
+
+    /**
+     * Save several notifications in a single store transaction
+     *
+     * @param context
+     * @param specs Notifications to save
+     */
+    static void saveAll(Context context, List<NotificationSpec> specs) {
+        final long now = System.currentTimeMillis();
+        final List<StoreLog.Record> records = new ArrayList<StoreLog.Record>(specs.size());
+        for (NotificationSpec spec : specs) {
+            records.add(new StoreLog.Record(spec.getId(), spec.toJSONString(), nextTriggerTime(spec, now), spec.getTags()));
+        }
+
+        synchronized (cache) {
+            StoreLog.get(context).putAll(records);
+            for (NotificationSpec spec : specs) {
+                cache.put(spec.getId(), spec);
+            }
+        }
+    }
+
+    /**
+     * Get the ids of the notifications carrying the given tag (options.tags, or options.groupKey), without going
+     * through the others
+     *
+     * @param context
+     * @param tag
+     * @return
+     */
+    public static int[] getIdsByTag(Context context, String tag) {
+        return StoreLog.get(context).idsByTag(tag);
     }
 
     /**
@@ -116,9 +212,28 @@ public final class Store {
      * @param id
      */
     public static void remove(Context context, int id) {
-        context.getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE).edit().remove(String.valueOf(id)).apply();
-        // Also remove any alarms fired data (if any)
-        context.getSharedPreferences(SHARED_PREFERENCES_ALARMS_FIRED_KEY, Context.MODE_PRIVATE).edit().remove(String.valueOf(id)).apply();
+        // This also removes any alarms fired data (if any), which is part of the same record
+        synchronized (cache) {
+            StoreLog.get(context).remove(id);
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Remove several notifications in a single store transaction
+     *
+     * @param context
+     * @param ids
+     * @return Number of notifications that were in the store
+     */
+    static int removeAll(Context context, int[] ids) {
+        synchronized (cache) {
+            final int removed = StoreLog.get(context).removeAll(ids);
+            for (int id : ids) {
+                cache.invalidate(id);
+            }
+            return removed;
+        }
     }
 
     /**
@@ -127,10 +242,14 @@ public final class Store {
      * @param id
      */
     public static void registerAlarmFired(Context context, int id) {
-        String now = Long.toString(System.currentTimeMillis());
-        context.getSharedPreferences(SHARED_PREFERENCES_ALARMS_FIRED_KEY, Context.MODE_PRIVATE).edit().putString(String.valueOf(id),
-                now).apply();
-        Log.i(TAG, "Alarm "+id+" registered fired at "+now);
+        final long now = System.currentTimeMillis();
+        final NotificationSpec spec = getSpec(context, id);
+
+        if (spec != null) {
+            // Also moves repeating notifications forward in the trigger index, and unschedules the other ones:
+            StoreLog.get(context).markFired(id, now, spec.isRepeating() ? nextTriggerTime(spec, now) : 0);
+            Log.i(TAG, "Alarm "+id+" registered fired at "+now);
+        }
     }
 
     /**
@@ -141,18 +260,18 @@ public final class Store {
      * @return Timestamp in millis if an entry is found, 0 otherwise
      */
     public static long getAlarmLastFiredTimestamp(Context context, int id) {
-        long res = 0;
-        try {
-            final String alarmFiredTs = context
-                    .getSharedPreferences(SHARED_PREFERENCES_ALARMS_FIRED_KEY, Context.MODE_PRIVATE)
-                    .getString(String.valueOf(id), null);
-            if (alarmFiredTs != null) {
-                res = Long.parseLong(alarmFiredTs);
-            }
-        } catch (Throwable e) {
-            Log.e(TAG, "Error parsing alarm fired timestamp" + e.getMessage(), e);
-        }
-        return res;
+        return StoreLog.get(context).lastFired(id);
+    }
+
+    /**
+     * Get the number of times the alarm with the given id has fired
+     *
+     * @param context
+     * @param id ID of the alarm (notification)
+     * @return
+     */
+    public static int getAlarmFireCount(Context context, int id) {
+        return StoreLog.get(context).fireCount(id);
     }
 
     /**
@@ -160,8 +279,103 @@ public final class Store {
      *
      * @param context
      * @return
+     * @deprecated Use {@link #getAlarmLastFiredTimestamp(Context, int)}, which doesn't copy the data of every alarm
      */
+    @Deprecated
     public static Map<String, String> getAlarmsFiredMap(Context context) {
-        return (Map<String, String>) context.getSharedPreferences(SHARED_PREFERENCES_ALARMS_FIRED_KEY, Context.MODE_PRIVATE).getAll();
+        final Map<Integer, Long> lastFired = StoreLog.get(context).lastFiredAll();
+        final Map<String, String> map = new HashMap<String, String>(lastFired.size());
+        for (Map.Entry<Integer, Long> e : lastFired.entrySet()) {
+            map.put(String.valueOf(e.getKey()), String.valueOf(e.getValue()));
+        }
+        return map;
+    }
+
+    /**
+     * Write any pending mutations to disk, blocking until they are written
+     *
+     * @param context
+     */
+    public static void flush(Context context) {
+        StoreLog.get(context).flush();
+    }
+
+    /**
+     * Write any pending mutations to disk in the background, then finish the given broadcast. Use it at the end
+     * of onReceive with the result of {@link BroadcastReceiver#goAsync()}, so the process is kept alive until
+     * the data is safe.
+     *
+     * @param context
+     * @param result Pending broadcast to finish, or null
+     */
+    public static void flush(Context context, @Nullable final BroadcastReceiver.PendingResult result) {
+        StoreLog.get(context).flushInBackground(result == null ? null : new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
+    }
+
+    /**
+     * Get the ids of the next notifications to fire, ordered by their trigger time
+     *
+     * @param context
+     * @param n Maximum number of ids to return
+     * @return
+     */
+    public static int[] getNextDue(Context context, int n) {
+        return StoreLog.get(context).nextDue(System.currentTimeMillis(), n);
+    }
+
+    /**
+     * Get the ids of the notifications firing in the given time range, ordered by their trigger time
+     *
+     * @param context
+     * @param from Start of the range (epoch millis, inclusive)
+     * @param to End of the range (epoch millis, exclusive)
+     * @return
+     */
+    public static int[] getDueBetween(Context context, long from, long to) {
+        return StoreLog.get(context).dueBetween(from, to);
+    }
+
+    /**
+     * Calculate when a notification fires next, based on its initial trigger time (atTime) and repeat rule
+     *
+     * @param spec
+     * @param now
+     * @return Timestamp in millis, the initial trigger time for non-repeating notifications (even if it's in the past)
+     * or 0 for notifications which are shown immediately
+     */
+    static long nextTriggerTime(NotificationSpec spec, long now) {
+        final long triggerTime = spec.getAtTime();
+        final Recurrence recurrence = spec.getRecurrence();
+
+        if (triggerTime == 0 || recurrence == null) {
+            return triggerTime;
+        }
+
+        return recurrence.nextOccurrenceAfter(now);
+    }
+
+    /**
+     * Get the options cache statistics, for diagnostics
+     *
+     * @return { size, maxSize, hits, misses }
+     */
+    public static JSONObject getCacheStats() {
+        final JSONObject stats = new JSONObject();
+        try {
+            synchronized (cache) {
+                stats.put("size", cache.size())
+                        .put("maxSize", cache.maxSize())
+                        .put("hits", cache.hitCount())
+                        .put("misses", cache.missCount());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error building cache stats" + e.getMessage(), e);
+        }
+        return stats;
     }
 }
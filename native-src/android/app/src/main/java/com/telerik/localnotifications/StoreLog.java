@@ -0,0 +1,1258 @@
+package com.telerik.localnotifications;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary record log backing {@link Store}.
+ *
+ * The file starts with an 8 byte header (magic + format version) followed by records laid out as
+ * [type:1][id:4][length:4][body:length][crc32:4]. A PUT body is a sequence of tagged fields
+ * ([tag:1][length:4][value]) so new fields can be added later; unknown tags are skipped when reading.
+ * A REMOVE body is empty. A BATCH body holds complete nested records, so a multi-record transaction
+ * is covered by one CRC and is either applied as a whole or not at all. A TRIGGER record updates the
+ * next trigger time of a live record without rewriting its options, and a FIRED record does the same while
+ * also recording when (and how many times) its alarm has fired. An ACTION_GROUP record stores the actions of a
+ * registered {@link ActionGroup} ([nameLength:4][name][actions]), or removes it when it has no actions. A BATCHED record
+ * ([batched:1]) sets whether a live record is delivered by the alarm of its {@link AlarmBatcher} window rather than
+ * one of its own. Record types a reader doesn't know are skipped.
+ *
+ * An in-memory index maps every live id to the position of its options in the file, so a lookup is a
+ * single positioned read. A second index orders the live records by their next trigger time, and a third maps
+ * every tag to the ids carrying it. The tags are a field of their own in PUT records, so all the indexes are
+ * rebuilt from the log on open without parsing any JSON.
+ *
+ * Writes are applied to the indexes right away (so readers always see them) and written behind by a single
+ * background thread. Mutations of the same id are coalesced until the next flush, which appends all of them
+ * as one BATCH record: saving, firing and removing a notification within the flush delay costs a single REMOVE.
+ * Call {@link #flush()} before the process may die (ie. at the end of a BroadcastReceiver).
+ *
+ * Superseded records are reclaimed by compaction, which writes the live records (with their current
+ * trigger times, fired data and batched flags folded in) into a new file and atomically renames it over the log.
+ *
+ * A log written by a newer version of the plugin (ie. after a downgrade) is left untouched: it's not read, and
+ * nothing is written to it, so the schedule is still there if the plugin is upgraded again.
+ */
+final class StoreLog {
+
+    private static final String TAG = "StoreLog";
+
+    static final String FILE_NAME = "LocalNotificationsPlugin.log";
+
+    private static final int MAGIC = 0x4C4E534C; // "LNSL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 1 + 4 + 4;
+    private static final int RECORD_OVERHEAD = RECORD_HEADER_SIZE + 4;
+    private static final int FIELD_HEADER_SIZE = 1 + 4;
+
+    static final byte TYPE_PUT = 1;
+    static final byte TYPE_REMOVE = 2;
+    static final byte TYPE_BATCH = 3;
+    static final byte TYPE_TRIGGER = 4;
+    static final byte TYPE_FIRED = 5;
+    static final byte TYPE_ACTION_GROUP = 6;
+    static final byte TYPE_BATCHED = 7;
+
+    static final byte FIELD_OPTIONS = 1;
+    static final byte FIELD_TRIGGER = 2;
+    static final byte FIELD_LAST_FIRED = 3;
+    static final byte FIELD_FIRE_COUNT = 4;
+    static final byte FIELD_TAGS = 5;
+    static final byte FIELD_BATCHED = 6;
+
+    private static final String[] NO_TAGS = new String[0];
+
+    // Compact once at least this many bytes are dead AND they outweigh the live records:
+    private static final long COMPACT_MIN_GARBAGE_BYTES = 64 * 1024;
+
+    // How long mutations are held (and coalesced) before the writer thread appends them:
+    private static final long FLUSH_DELAY_MS = 100;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static StoreLog instance;
+
+    private final File file;
+    private final Map<Integer, Entry> index = new HashMap<Integer, Entry>();
+    private final TreeSet<Trigger> triggers = new TreeSet<Trigger>();
+    private final Map<String, Set<Integer>> tagged = new HashMap<String, Set<Integer>>();
+    // Ids mutated since the last flush, mapped to the kind of record that brings the log up to date with the index:
+    private final Map<Integer, Byte> dirty = new LinkedHashMap<Integer, Byte>();
+    // Actions (JSON) of the registered action groups by name, and the names mutated since the last flush:
+    private final Map<String, String> actionGroups = new HashMap<String, String>();
+    private final Set<String> dirtyActionGroups = new LinkedHashSet<String>();
+    // Ids whose batched flag changed since the last flush:
+    private final Set<Integer> dirtyBatched = new LinkedHashSet<Integer>();
+    private final ScheduledExecutorService writer;
+    private boolean flushScheduled;
+    private RandomAccessFile raf;
+    private long liveBytes;
+    // Set when the log has a newer format version, which we must not write to:
+    private boolean readOnly;
+
+    /**
+     * A notification to be written to the log.
+     */
+    static final class Record {
+        final int id;
+        final String options;
+        // Next time the notification fires (epoch millis), or 0 if it's not scheduled:
+        final long trigger;
+        final String[] tags;
+
+        Record(int id, String options, long trigger) {
+            this(id, options, trigger, NO_TAGS);
+        }
+
+        Record(int id, String options, long trigger, String[] tags) {
+            this.id = id;
+            this.options = options;
+            this.trigger = trigger;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * Location and metadata of a live record in the log.
+     */
+    private static final class Entry {
+        // Size of the PUT record (0 until it's written), used to estimate how much of the file is garbage:
+        int recordLength;
+        // Offset and size of the options JSON within the file:
+        long optionsOffset;
+        int optionsLength;
+        // Options that haven't been written yet, null once they are in the file:
+        @Nullable String pendingOptions;
+        long trigger;
+        // When the alarm last fired (epoch millis, 0 if it never did) and how many times it has fired:
+        long lastFired;
+        int fireCount;
+        String[] tags = NO_TAGS;
+        // Delivered by the alarm of its AlarmBatcher window:
+        boolean batched;
+
+        Entry(int recordLength, long optionsOffset, int optionsLength, long trigger, long lastFired, int fireCount) {
+            this.recordLength = recordLength;
+            this.optionsOffset = optionsOffset;
+            this.optionsLength = optionsLength;
+            this.trigger = trigger;
+            this.lastFired = lastFired;
+            this.fireCount = fireCount;
+        }
+
+        Entry(String pendingOptions, long trigger, long lastFired, int fireCount) {
+            this(0, -1, 0, trigger, lastFired, fireCount);
+            this.pendingOptions = pendingOptions;
+        }
+    }
+
+    /**
+     * Key of the trigger index, ordered by time and then id.
+     */
+    private static final class Trigger implements Comparable<Trigger> {
+        final long time;
+        final int id;
+
+        Trigger(long time, int id) {
+            this.time = time;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Trigger other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return id < other.id ? -1 : (id == other.id ? 0 : 1);
+        }
+    }
+
+    /**
+     * Get the log for this application, opening (and if needed migrating) it on first access.
+     *
+     * @param context
+     * @return
+     */
+    static synchronized StoreLog get(Context context) {
+        if (instance == null) {
+            final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            instance = new StoreLog(new File(appContext.getFilesDir(), FILE_NAME));
+            instance.open(appContext);
+        }
+
+        return instance;
+    }
+
+    private StoreLog(File file) {
+        this.file = file;
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "StoreLog writer");
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        writer = executor;
+    }
+
+    // Reads:
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Throws if the log was written by a newer version of the plugin, which we can't read nor write. Its schedule is
+     * unknown and anything we'd store would be thrown away, so callers must not go on as if it worked.
+     */
+    synchronized void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("The notification log was written by a newer version of the plugin, it can't be read nor written");
+        }
+    }
+
+    synchronized int[] ids() {
+        final int[] ids = new int[index.size()];
+        int i = 0;
+        for (Integer id : index.keySet()) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Read the options JSON stored for the given id.
+     *
+     * @param id
+     * @return The JSON string, or null if there's no such record or it could not be read
+     */
+    synchronized @Nullable String read(int id) {
+        final Entry entry = index.get(id);
+
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            return readOptions(entry);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading record " + id + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the options JSON of every live record.
+     *
+     * @return Map of id (as string, like the SharedPreferences keys used to be) to JSON
+     */
+    synchronized Map<String, String> readAll() {
+        final Map<String, String> all = new LinkedHashMap<String, String>(index.size());
+
+        for (Map.Entry<Integer, Entry> e : index.entrySet()) {
+            try {
+                all.put(String.valueOf(e.getKey()), readOptions(e.getValue()));
+            } catch (IOException ex) {
+                Log.e(TAG, "Error reading record " + e.getKey() + ": " + ex.getMessage(), ex);
+            }
+        }
+
+        return all;
+    }
+
+    /**
+     * @return The next trigger time of the given id, or 0 if it's unknown or not scheduled
+     */
+    synchronized long trigger(int id) {
+        final Entry entry = index.get(id);
+        return entry == null ? 0 : entry.trigger;
+    }
+
+    /**
+     * @return When the alarm of the given id last fired (epoch millis), or 0 if it never did
+     */
+    synchronized long lastFired(int id) {
+        final Entry entry = index.get(id);
+        return entry == null ? 0 : entry.lastFired;
+    }
+
+    /**
+     * @return How many times the alarm of the given id has fired
+     */
+    synchronized int fireCount(int id) {
+        final Entry entry = index.get(id);
+        return entry == null ? 0 : entry.fireCount;
+    }
+
+    /**
+     * @return Whether the given id is delivered by the alarm of its AlarmBatcher window rather than one of its own
+     */
+    synchronized boolean isBatched(int id) {
+        final Entry entry = index.get(id);
+        return entry != null && entry.batched;
+    }
+
+    /**
+     * @return Map of id to last fired timestamp, for the records whose alarm has fired at least once
+     */
+    synchronized Map<Integer, Long> lastFiredAll() {
+        final Map<Integer, Long> all = new HashMap<Integer, Long>();
+        for (Map.Entry<Integer, Entry> e : index.entrySet()) {
+            if (e.getValue().lastFired != 0) {
+                all.put(e.getKey(), e.getValue().lastFired);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Get the ids of the (at most) n records with the earliest trigger times at or after the given time.
+     * Runs in O(log n + k).
+     */
+    synchronized int[] nextDue(long from, int n) {
+        return collect(triggers.tailSet(new Trigger(from, Integer.MIN_VALUE), true), n);
+    }
+
+    /**
+     * Get the ids of the records triggering in [from, to), ordered by trigger time. Runs in O(log n + k).
+     */
+    synchronized int[] dueBetween(long from, long to) {
+        if (to <= from) {
+            return new int[0];
+        }
+        return collect(triggers.subSet(new Trigger(from, Integer.MIN_VALUE), true, new Trigger(to, Integer.MIN_VALUE), false), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the ids of the records carrying the given tag. Runs in O(k).
+     */
+    synchronized int[] idsByTag(String tag) {
+        final Set<Integer> ids = tagged.get(tag);
+
+        if (ids == null) {
+            return new int[0];
+        }
+
+        final int[] result = new int[ids.size()];
+        int i = 0;
+        for (Integer id : ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    synchronized Map<String, String> readActionGroups() {
+        return new HashMap<String, String>(actionGroups);
+    }
+
+    private static int[] collect(NavigableSet<Trigger> range, int max) {
+        final int[] ids = new int[Math.min(max, range.size())];
+        int i = 0;
+        for (Trigger trigger : range) {
+            if (i == ids.length) {
+                break;
+            }
+            ids[i++] = trigger.id;
+        }
+        return ids;
+    }
+
+    // Writes:
+
+    /**
+     * Write a record. Re-saving an existing id keeps its fired data, and whether it's batched.
+     */
+    synchronized void put(Record record) {
+        final Entry previous = detach(record.id);
+        final Entry entry = previous == null
+                ? new Entry(record.options, record.trigger, 0, 0)
+                : new Entry(record.options, record.trigger, previous.lastFired, previous.fireCount);
+        entry.tags = record.tags;
+        entry.batched = previous != null && previous.batched;
+
+        index.put(record.id, entry);
+        indexTrigger(record.id, entry);
+        indexTags(record.id, entry);
+        markDirty(record.id, TYPE_PUT);
+    }
+
+    /**
+     * Write several records, so either all of them survive the next open or none does. They are flushed
+     * together, as part of the same BATCH record.
+     */
+    synchronized void putAll(Collection<Record> records) {
+        for (Record record : records) {
+            put(record);
+        }
+    }
+
+    /**
+     * Update the next trigger time of a live record.
+     */
+    synchronized void setTrigger(int id, long trigger) {
+        final Entry entry = index.get(id);
+
+        if (entry == null || entry.trigger == trigger) {
+            return;
+        }
+
+        unindexTrigger(id, entry);
+        entry.trigger = trigger;
+        indexTrigger(id, entry);
+        markDirty(id, TYPE_TRIGGER);
+    }
+
+    /**
+     * Record that the alarm of a live record has fired and set its next trigger time.
+     */
+    synchronized void markFired(int id, long firedAt, long trigger) {
+        final Entry entry = index.get(id);
+
+        if (entry == null) {
+            return;
+        }
+
+        unindexTrigger(id, entry);
+        entry.lastFired = firedAt;
+        entry.fireCount++;
+        entry.trigger = trigger;
+        indexTrigger(id, entry);
+        markDirty(id, TYPE_FIRED);
+    }
+
+    /**
+     * Set whether a live record is delivered by the alarm of its AlarmBatcher window rather than one of its own.
+     */
+    synchronized void setBatched(int id, boolean batched) {
+        final Entry entry = index.get(id);
+
+        if (entry == null || entry.batched == batched) {
+            return;
+        }
+
+        entry.batched = batched;
+        dirtyBatched.add(id);
+        scheduleFlush();
+    }
+
+    synchronized void remove(int id) {
+        if (detach(id) == null) {
+            return;
+        }
+
+        markDirty(id, TYPE_REMOVE);
+    }
+
+    /**
+     * Remove several records. They are flushed together, as part of the same BATCH record.
+     *
+     * @return Number of records that were live
+     */
+    synchronized int removeAll(int[] ids) {
+        int removed = 0;
+
+        for (int id : ids) {
+            if (detach(id) != null) {
+                markDirty(id, TYPE_REMOVE);
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Store the actions of an action group, replacing the previous ones.
+     */
+    synchronized void putActionGroup(String name, String actions) {
+        actionGroups.put(name, actions);
+        dirtyActionGroups.add(name);
+        scheduleFlush();
+    }
+
+    synchronized void removeActionGroup(String name) {
+        if (actionGroups.remove(name) == null) {
+            return;
+        }
+
+        dirtyActionGroups.add(name);
+        scheduleFlush();
+    }
+
+    /**
+     * Drops a live record from the indexes.
+     */
+    private @Nullable Entry detach(int id) {
+        final Entry previous = index.remove(id);
+        if (previous != null) {
+            liveBytes -= previous.recordLength;
+            unindexTrigger(id, previous);
+            unindexTags(id, previous);
+        }
+        return previous;
+    }
+
+    /**
+     * Remember that the given id needs to be written, keeping only the strongest pending record kind
+     * (a PUT already carries the trigger and fired data, a FIRED record the trigger), and make sure a
+     * flush is coming.
+     */
+    private void markDirty(int id, byte type) {
+        final Byte pending = dirty.get(id);
+
+        if (pending == null || type == TYPE_PUT || type == TYPE_REMOVE || (pending == TYPE_TRIGGER && type == TYPE_FIRED)) {
+            dirty.put(id, type);
+        }
+
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Append every pending mutation to the log with a single write, and sync it to disk once for the whole batch.
+     * Blocks until they're written.
+     */
+    synchronized void flush() {
+        flushScheduled = false;
+
+        if (dirty.isEmpty() && dirtyActionGroups.isEmpty() && dirtyBatched.isEmpty()) {
+            return;
+        }
+
+        if (readOnly) {
+            Log.w(TAG, "Not writing " + (dirty.size() + dirtyActionGroups.size() + dirtyBatched.size()) + " changes to a notification log of a newer version");
+            dirty.clear();
+            dirtyActionGroups.clear();
+            dirtyBatched.clear();
+            return;
+        }
+
+        final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        // Offsets within the nested records of the options written for each PUT, to point the index at them afterwards:
+        final Map<Integer, Integer> written = new HashMap<Integer, Integer>();
+
+        for (Map.Entry<Integer, Byte> e : dirty.entrySet()) {
+            final int id = e.getKey();
+            final byte type = e.getValue();
+            final Entry entry = index.get(id);
+            final byte[] record;
+
+            if (type == TYPE_REMOVE) {
+                record = encodeRecord(TYPE_REMOVE, id, new byte[0]);
+            } else if (entry == null) {
+                continue;
+            } else if (type == TYPE_PUT) {
+                record = encodePut(new Record(id, entry.pendingOptions, entry.trigger, entry.tags), entry.lastFired, entry.fireCount, entry.batched);
+                written.put(id, nested.size());
+            } else if (type == TYPE_FIRED) {
+                record = encodeRecord(TYPE_FIRED, id, ByteBuffer.allocate(8 + 4 + 8)
+                        .putLong(entry.lastFired)
+                        .putInt(entry.fireCount)
+                        .putLong(entry.trigger)
+                        .array());
+            } else {
+                record = encodeRecord(TYPE_TRIGGER, id, ByteBuffer.allocate(8).putLong(entry.trigger).array());
+            }
+
+            nested.write(record, 0, record.length);
+        }
+
+        for (String name : dirtyActionGroups) {
+            final String actions = actionGroups.get(name);
+            final byte[] record = encodeActionGroup(name, actions != null ? actions : "");
+            nested.write(record, 0, record.length);
+        }
+
+        for (int id : dirtyBatched) {
+            final Entry entry = index.get(id);
+            final Byte pending = dirty.get(id);
+            // A PUT carries the flag already:
+            if (entry == null || (pending != null && pending == TYPE_PUT)) {
+                continue;
+            }
+
+            final byte[] record = encodeRecord(TYPE_BATCHED, id, new byte[]{(byte) (entry.batched ? 1 : 0)});
+            nested.write(record, 0, record.length);
+        }
+
+        final int count = dirty.size() + dirtyActionGroups.size() + dirtyBatched.size();
+        final byte[] records = nested.toByteArray();
+        // A single record doesn't need the BATCH wrapper to be atomic:
+        final boolean batch = count > 1;
+        final byte[] data = batch ? encodeRecord(TYPE_BATCH, count, records) : records;
+
+        long start = -1;
+        try {
+            start = raf.length();
+            raf.seek(start);
+            raf.write(data);
+            // Once per batch, so a power loss can't take back mutations we've acknowledged:
+            raf.getFD().sync();
+
+            final long recordsOffset = batch ? start + RECORD_HEADER_SIZE : start;
+            for (Map.Entry<Integer, Integer> e : written.entrySet()) {
+                final Entry entry = index.get(e.getKey());
+                final int optionsLength = ByteBuffer.wrap(records, e.getValue() + RECORD_HEADER_SIZE + 1, 4).getInt();
+
+                entry.recordLength = ByteBuffer.wrap(records, e.getValue() + 1 + 4, 4).getInt() + RECORD_OVERHEAD;
+                entry.optionsOffset = recordsOffset + e.getValue() + RECORD_HEADER_SIZE + FIELD_HEADER_SIZE;
+                entry.optionsLength = optionsLength;
+                entry.pendingOptions = null;
+                liveBytes += entry.recordLength;
+            }
+            dirty.clear();
+            dirtyActionGroups.clear();
+            dirtyBatched.clear();
+        } catch (IOException e) {
+            // Keep the mutations pending, the next one retries. Drop whatever made it to the file, so the retry doesn't
+            // land after a torn record (which would hide it from the next open):
+            Log.e(TAG, "Error appending to the notification log: " + e.getMessage(), e);
+            truncate(start);
+            return;
+        }
+
+        compactIfNeeded();
+    }
+
+    /**
+     * Flush on the writer thread, then run the given callback (on that thread too).
+     */
+    void flushInBackground(@Nullable final Runnable then) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } finally {
+                    if (then != null) {
+                        then.run();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends an encoded record with a single write, then updates the index. Only used while opening,
+     * when nothing is pending.
+     */
+    private void append(byte[] record) {
+        if (readOnly) {
+            return;
+        }
+
+        long start = -1;
+        try {
+            start = raf.length();
+            raf.seek(start);
+            raf.write(record);
+            raf.getFD().sync();
+
+            final ByteBuffer header = ByteBuffer.wrap(record);
+            final byte type = header.get();
+            final int id = header.getInt();
+            apply(type, id, Arrays.copyOfRange(record, RECORD_HEADER_SIZE, record.length - 4), start);
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending to the notification log: " + e.getMessage(), e);
+            truncate(start);
+            return;
+        }
+
+        compactIfNeeded();
+    }
+
+    /**
+     * Cut the file back to the given length after a failed append, if it was known.
+     */
+    private void truncate(long length) {
+        if (length < 0) {
+            return;
+        }
+
+        try {
+            raf.setLength(length);
+        } catch (IOException e) {
+            Log.e(TAG, "Error truncating the notification log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Applies a record to the in-memory indexes.
+     */
+    private void apply(byte type, int id, byte[] body, long recordOffset) {
+        if (type == TYPE_BATCH) {
+            // The nested records were checked as part of the batch CRC, so we don't verify theirs:
+            final ByteBuffer nested = ByteBuffer.wrap(body);
+            while (nested.remaining() >= RECORD_OVERHEAD) {
+                final int nestedStart = nested.position();
+                final byte nestedType = nested.get();
+                final int nestedId = nested.getInt();
+                final byte[] nestedBody = new byte[nested.getInt()];
+                nested.get(nestedBody);
+                nested.getInt();
+
+                apply(nestedType, nestedId, nestedBody, recordOffset + RECORD_HEADER_SIZE + nestedStart);
+            }
+            return;
+        }
+
+        if (type == TYPE_TRIGGER) {
+            final Entry entry = index.get(id);
+            if (entry != null && body.length == 8) {
+                unindexTrigger(id, entry);
+                entry.trigger = ByteBuffer.wrap(body).getLong();
+                indexTrigger(id, entry);
+            }
+            return;
+        }
+
+        if (type == TYPE_BATCHED) {
+            final Entry entry = index.get(id);
+            if (entry != null && body.length == 1) {
+                entry.batched = body[0] != 0;
+            }
+            return;
+        }
+
+        if (type == TYPE_ACTION_GROUP) {
+            final ByteBuffer group = ByteBuffer.wrap(body);
+            final int nameLength = group.getInt();
+            final String name = new String(body, 4, nameLength, UTF_8);
+            final String actions = new String(body, 4 + nameLength, body.length - 4 - nameLength, UTF_8);
+
+            if (actions.isEmpty()) {
+                actionGroups.remove(name);
+            } else {
+                actionGroups.put(name, actions);
+            }
+            return;
+        }
+
+        if (type == TYPE_FIRED) {
+            final Entry entry = index.get(id);
+            if (entry != null && body.length == 8 + 4 + 8) {
+                final ByteBuffer fired = ByteBuffer.wrap(body);
+                entry.lastFired = fired.getLong();
+                entry.fireCount = fired.getInt();
+                unindexTrigger(id, entry);
+                entry.trigger = fired.getLong();
+                indexTrigger(id, entry);
+            }
+            return;
+        }
+
+        if (type != TYPE_PUT && type != TYPE_REMOVE) {
+            return;
+        }
+
+        detach(id);
+
+        if (type != TYPE_PUT) {
+            return;
+        }
+
+        long optionsOffset = -1;
+        int optionsLength = 0;
+        long trigger = 0;
+        long lastFired = 0;
+        int fireCount = 0;
+        String[] tags = NO_TAGS;
+        boolean batched = false;
+
+        final ByteBuffer fields = ByteBuffer.wrap(body);
+        while (fields.remaining() >= FIELD_HEADER_SIZE) {
+            final byte tag = fields.get();
+            final int length = fields.getInt();
+            if (tag == FIELD_OPTIONS) {
+                optionsOffset = recordOffset + RECORD_HEADER_SIZE + fields.position();
+                optionsLength = length;
+            } else if (tag == FIELD_TRIGGER && length == 8) {
+                trigger = fields.getLong(fields.position());
+            } else if (tag == FIELD_LAST_FIRED && length == 8) {
+                lastFired = fields.getLong(fields.position());
+            } else if (tag == FIELD_FIRE_COUNT && length == 4) {
+                fireCount = fields.getInt(fields.position());
+            } else if (tag == FIELD_TAGS) {
+                tags = decodeTags(body, fields.position(), length);
+            } else if (tag == FIELD_BATCHED && length == 1) {
+                batched = fields.get(fields.position()) != 0;
+            }
+            fields.position(fields.position() + length);
+        }
+
+        if (optionsOffset < 0) {
+            Log.w(TAG, "Record " + id + " has no options, ignoring it");
+            return;
+        }
+
+        final Entry entry = new Entry(RECORD_OVERHEAD + body.length, optionsOffset, optionsLength, trigger, lastFired, fireCount);
+        entry.tags = tags;
+        entry.batched = batched;
+        index.put(id, entry);
+        indexTrigger(id, entry);
+        indexTags(id, entry);
+        liveBytes += entry.recordLength;
+    }
+
+    private void indexTrigger(int id, Entry entry) {
+        if (entry.trigger != 0) {
+            triggers.add(new Trigger(entry.trigger, id));
+        }
+    }
+
+    private void unindexTrigger(int id, Entry entry) {
+        if (entry.trigger != 0) {
+            triggers.remove(new Trigger(entry.trigger, id));
+        }
+    }
+
+    private void indexTags(int id, Entry entry) {
+        for (String tag : entry.tags) {
+            Set<Integer> ids = tagged.get(tag);
+            if (ids == null) {
+                ids = new HashSet<Integer>();
+                tagged.put(tag, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    private void unindexTags(int id, Entry entry) {
+        for (String tag : entry.tags) {
+            final Set<Integer> ids = tagged.get(tag);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                tagged.remove(tag);
+            }
+        }
+    }
+
+    // Encoding:
+
+    static byte[] encodePut(Record record) {
+        return encodePut(record, 0, 0, false);
+    }
+
+    private static byte[] encodePut(Record record, @Nullable Entry previous) {
+        return previous == null ? encodePut(record) : encodePut(record, previous.lastFired, previous.fireCount, previous.batched);
+    }
+
+    private static byte[] encodePut(Record record, long lastFired, int fireCount, boolean batched) {
+        final byte[] options = record.options.getBytes(UTF_8);
+        final byte[] tags = record.tags.length > 0 ? encodeTags(record.tags) : null;
+        final boolean fired = lastFired != 0 || fireCount != 0;
+        final ByteBuffer body = ByteBuffer.allocate(FIELD_HEADER_SIZE + options.length + FIELD_HEADER_SIZE + 8
+                + (fired ? FIELD_HEADER_SIZE + 8 + FIELD_HEADER_SIZE + 4 : 0)
+                + (tags != null ? FIELD_HEADER_SIZE + tags.length : 0)
+                + (batched ? FIELD_HEADER_SIZE + 1 : 0));
+        // The options go first, flush() relies on it to locate them:
+        body.put(FIELD_OPTIONS).putInt(options.length).put(options);
+        body.put(FIELD_TRIGGER).putInt(8).putLong(record.trigger);
+        if (fired) {
+            body.put(FIELD_LAST_FIRED).putInt(8).putLong(lastFired);
+            body.put(FIELD_FIRE_COUNT).putInt(4).putInt(fireCount);
+        }
+        if (tags != null) {
+            body.put(FIELD_TAGS).putInt(tags.length).put(tags);
+        }
+        if (batched) {
+            body.put(FIELD_BATCHED).putInt(1).put((byte) 1);
+        }
+        return encodeRecord(TYPE_PUT, record.id, body.array());
+    }
+
+    /**
+     * Tags are laid out as [count:4] followed by [length:4][utf-8] for each of them.
+     */
+    private static byte[] encodeTags(String[] tags) {
+        final byte[][] encoded = new byte[tags.length][];
+        int size = 4;
+        for (int i = 0; i < tags.length; i++) {
+            encoded[i] = tags[i].getBytes(UTF_8);
+            size += 4 + encoded[i].length;
+        }
+
+        final ByteBuffer value = ByteBuffer.allocate(size).putInt(tags.length);
+        for (byte[] tag : encoded) {
+            value.putInt(tag.length).put(tag);
+        }
+        return value.array();
+    }
+
+    private static String[] decodeTags(byte[] body, int offset, int length) {
+        final ByteBuffer value = ByteBuffer.wrap(body, offset, length);
+        final String[] tags = new String[value.getInt()];
+        for (int i = 0; i < tags.length; i++) {
+            final int tagLength = value.getInt();
+            tags[i] = new String(body, value.position(), tagLength, UTF_8);
+            value.position(value.position() + tagLength);
+        }
+        return tags;
+    }
+
+    private static byte[] encodeActionGroup(String name, String actions) {
+        final byte[] nameBytes = name.getBytes(UTF_8);
+        final byte[] actionsBytes = actions.getBytes(UTF_8);
+        return encodeRecord(TYPE_ACTION_GROUP, 0, ByteBuffer.allocate(4 + nameBytes.length + actionsBytes.length)
+                .putInt(nameBytes.length)
+                .put(nameBytes)
+                .put(actionsBytes)
+                .array());
+    }
+
+    static byte[] encodeRecord(byte type, int id, byte[] body) {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + body.length);
+        record.put(type).putInt(id).putInt(body.length).put(body);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_HEADER_SIZE + body.length);
+        record.putInt((int) crc.getValue());
+
+        return record.array();
+    }
+
+    private String readOptions(Entry entry) throws IOException {
+        if (entry.pendingOptions != null) {
+            return entry.pendingOptions;
+        }
+
+        final byte[] value = new byte[entry.optionsLength];
+        raf.seek(entry.optionsOffset);
+        raf.readFully(value);
+        return new String(value, UTF_8);
+    }
+
+    // Opening, recovery and migration:
+
+    private void open(Context context) {
+        try {
+            if (!file.exists()) {
+                migrateFromSharedPreferences(context);
+            }
+
+            raf = new RandomAccessFile(file, "rw");
+            load();
+            migrateAlarmsFired(context);
+            migrateActionGroups(context);
+        } catch (IOException e) {
+            // Start over rather than leaving the plugin without a store. We'd rather lose the schedule than crash every receiver.
+            Log.e(TAG, "Unable to open the notification log, starting a new one: " + e.getMessage(), e);
+            try {
+                if (raf != null) {
+                    raf.close();
+                }
+                file.delete();
+                raf = new RandomAccessFile(file, "rw");
+                raf.write(header());
+                clearIndexes();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to create the notification log", ex);
+            }
+        }
+
+        compactIfNeeded();
+    }
+
+    private void clearIndexes() {
+        dirty.clear();
+        dirtyActionGroups.clear();
+        actionGroups.clear();
+        index.clear();
+        triggers.clear();
+        tagged.clear();
+        liveBytes = 0;
+    }
+
+    /**
+     * Rebuild the indexes from the log. A torn or corrupt tail (ie. the process died mid-write) is truncated.
+     */
+    private void load() throws IOException {
+        clearIndexes();
+
+        final long fileLength = raf.length();
+
+        if (fileLength < HEADER_SIZE) {
+            raf.setLength(0);
+            raf.write(header());
+            return;
+        }
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        long position = HEADER_SIZE;
+
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a notification log");
+            }
+            final int version = in.readInt();
+            if (version > VERSION) {
+                // Starting over would lose the schedule for good, so keep the file as it is and work from memory:
+                Log.e(TAG, "Unsupported notification log version " + version + ", it won't be read nor written");
+                readOnly = true;
+                return;
+            }
+
+            final CRC32 crc = new CRC32();
+            while (position + RECORD_OVERHEAD <= fileLength) {
+                final byte type = in.readByte();
+                final int id = in.readInt();
+                final int length = in.readInt();
+
+                if (length < 0 || position + RECORD_OVERHEAD + length > fileLength) {
+                    break;
+                }
+
+                final byte[] body = new byte[length];
+                in.readFully(body);
+
+                crc.reset();
+                crc.update(ByteBuffer.allocate(RECORD_HEADER_SIZE).put(type).putInt(id).putInt(length).array());
+                crc.update(body);
+
+                if ((int) crc.getValue() != in.readInt()) {
+                    break;
+                }
+
+                apply(type, id, body, position);
+                position += RECORD_OVERHEAD + length;
+            }
+        } catch (EOFException e) {
+            // Truncated tail, handled below.
+        } finally {
+            in.close();
+        }
+
+        if (position < fileLength) {
+            Log.w(TAG, "Truncating " + (fileLength - position) + " unreadable bytes at the end of the notification log");
+            raf.setLength(position);
+        }
+    }
+
+    /**
+     * Notifications used to be stored as one JSON string per id in SharedPreferences. Copy them into a new log
+     * (written to a temporary file, then renamed) and only clear the preferences once the log is in place.
+     *
+     * This is the only time the JSON needs to be parsed to build the trigger index.
+     */
+    private void migrateFromSharedPreferences(Context context) throws IOException {
+        final SharedPreferences prefs = context.getSharedPreferences(Store.SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+        final Map<String, ?> legacy = prefs.getAll();
+        final long now = System.currentTimeMillis();
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        int migrated = 0;
+
+        try {
+            out.write(header());
+            for (Map.Entry<String, ?> e : legacy.entrySet()) {
+                try {
+                    if (e.getValue() instanceof String) {
+                        final String options = (String) e.getValue();
+                        final NotificationSpec spec = NotificationSpec.fromJSON(new JSONObject(options));
+                        out.write(encodePut(new Record(Integer.parseInt(e.getKey()), options, Store.nextTriggerTime(spec, now), spec.getTags())));
+                        migrated++;
+                    }
+                } catch (Exception ex) {
+                    Log.w(TAG, "Skipping invalid legacy notification " + e.getKey() + ": " + ex.getMessage());
+                }
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to move " + tmp + " to " + file);
+        }
+
+        if (!legacy.isEmpty()) {
+            prefs.edit().clear().apply();
+            Log.i(TAG, "Migrated " + migrated + " notifications from SharedPreferences");
+        }
+    }
+
+    /**
+     * The timestamps of fired alarms used to be kept in a separate SharedPreferences file. Fold them into the records
+     * they belong to, then drop that file. The number of times those alarms fired is unknown, so we count them once.
+     */
+    private void migrateAlarmsFired(Context context) {
+        final SharedPreferences prefs = context.getSharedPreferences(Store.SHARED_PREFERENCES_ALARMS_FIRED_KEY, Context.MODE_PRIVATE);
+        final Map<String, ?> legacy = prefs.getAll();
+
+        if (legacy.isEmpty()) {
+            return;
+        }
+
+        final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        int migrated = 0;
+
+        for (Map.Entry<String, ?> e : legacy.entrySet()) {
+            try {
+                final int id = Integer.parseInt(e.getKey());
+                final Entry entry = index.get(id);
+                if (entry != null && e.getValue() instanceof String) {
+                    final byte[] record = encodeRecord(TYPE_FIRED, id, ByteBuffer.allocate(8 + 4 + 8)
+                            .putLong(Long.parseLong((String) e.getValue()))
+                            .putInt(Math.max(entry.fireCount, 1))
+                            .putLong(entry.trigger)
+                            .array());
+                    nested.write(record, 0, record.length);
+                    migrated++;
+                }
+            } catch (NumberFormatException ex) {
+                Log.w(TAG, "Skipping invalid legacy alarm fired entry " + e.getKey());
+            }
+        }
+
+        if (migrated > 0) {
+            append(encodeRecord(TYPE_BATCH, migrated, nested.toByteArray()));
+        }
+
+        prefs.edit().clear().apply();
+        Log.i(TAG, "Migrated " + migrated + " alarm fired timestamps from SharedPreferences");
+    }
+
+    /**
+     * Action groups used to be persisted in a separate SharedPreferences file. Move them into the log, then drop
+     * that file.
+     */
+    private void migrateActionGroups(Context context) {
+        final SharedPreferences prefs = context.getSharedPreferences(ActionGroup.SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+        final Map<String, ?> legacy = prefs.getAll();
+
+        if (legacy.isEmpty()) {
+            return;
+        }
+
+        final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        int migrated = 0;
+
+        for (Map.Entry<String, ?> e : legacy.entrySet()) {
+            if (e.getValue() instanceof String && !actionGroups.containsKey(e.getKey())) {
+                final byte[] record = encodeActionGroup(e.getKey(), (String) e.getValue());
+                nested.write(record, 0, record.length);
+                migrated++;
+            }
+        }
+
+        if (migrated > 0) {
+            append(encodeRecord(TYPE_BATCH, migrated, nested.toByteArray()));
+        }
+
+        prefs.edit().clear().apply();
+        Log.i(TAG, "Migrated " + migrated + " action groups from SharedPreferences");
+    }
+
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array();
+    }
+
+    // Compaction:
+
+    private void compactIfNeeded() {
+        if (readOnly) {
+            return;
+        }
+
+        try {
+            final long garbage = raf.length() - HEADER_SIZE - liveBytes - actionGroupBytes();
+
+            if (garbage >= COMPACT_MIN_GARBAGE_BYTES && garbage > liveBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting the notification log: " + e.getMessage(), e);
+        }
+    }
+
+    private long actionGroupBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, String> e : actionGroups.entrySet()) {
+            // Close enough, the names and actions are mostly ASCII:
+            bytes += RECORD_OVERHEAD + 4 + e.getKey().length() + e.getValue().length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Write all live records (including the pending ones) into a new file and swap it in, then rebuild the indexes
+     * against it.
+     */
+    synchronized void compact() throws IOException {
+        if (readOnly) {
+            return;
+        }
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+
+        try {
+            out.write(header());
+            for (Map.Entry<Integer, Entry> e : index.entrySet()) {
+                final Entry entry = e.getValue();
+                out.write(encodePut(new Record(e.getKey(), readOptions(entry), entry.trigger, entry.tags), entry));
+            }
+            for (Map.Entry<String, String> e : actionGroups.entrySet()) {
+                out.write(encodeActionGroup(e.getKey(), e.getValue()));
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        raf.close();
+        final boolean renamed = tmp.renameTo(file);
+        raf = new RandomAccessFile(file, "rw");
+
+        if (!renamed) {
+            throw new IOException("Unable to move " + tmp + " to " + file);
+        }
+
+        load();
+        Log.d(TAG, "Compacted the notification log to " + raf.length() + " bytes");
+    }
+}
@@ -0,0 +1,143 @@
+package com.telerik.localnotifications;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link ImageFetcher} against a local HTTP server: concurrent fetches of an image share one download, and fetching
+ * it again revalidates the cached file with its ETag or Last-Modified date.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ImageFetcherTest {
+
+  private static final String ETAG = "\"v1\"";
+  private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+  private static final byte[] IMAGE = new byte[50000];
+
+  private HttpServer server;
+  private ImageFetcher fetcher;
+
+  // Requests the server got, and how many of them it answered with 304 Not Modified:
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger notModified = new AtomicInteger();
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/etag", new ImageHandler("ETag", ETAG, "If-None-Match"));
+    server.createContext("/last-modified", new ImageHandler("Last-Modified", LAST_MODIFIED, "If-Modified-Since"));
+    server.start();
+
+    fetcher = ImageFetcher.get(RuntimeEnvironment.getApplication());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void concurrentFetchesShareOneDownload() throws Exception {
+    final String url = url("/etag/shared.png");
+
+    final Future<File> first = fetcher.fetch(url);
+    final Future<File> second = fetcher.fetch(url);
+
+    assertSame(first, second);
+    assertEquals(IMAGE.length, first.get(10, TimeUnit.SECONDS).length());
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void revalidatesWithETag() throws Exception {
+    assertRevalidated(url("/etag/image.png"));
+  }
+
+  @Test
+  public void revalidatesWithLastModified() throws Exception {
+    assertRevalidated(url("/last-modified/image.png"));
+  }
+
+  private void assertRevalidated(String url) throws Exception {
+    final File downloaded = fetcher.fetch(url).get(10, TimeUnit.SECONDS);
+    assertNotNull(downloaded);
+    assertEquals(0, notModified.get());
+
+    final File revalidated = fetcher.fetch(url).get(10, TimeUnit.SECONDS);
+
+    assertEquals(2, requests.get());
+    assertEquals(1, notModified.get());
+    assertEquals(downloaded, revalidated);
+    assertArrayEquals(IMAGE, Files.readAllBytes(revalidated.toPath()));
+  }
+
+  private String url(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  /**
+   * Serves the image with the given validator, or 304 Not Modified when the request has it.
+   */
+  private final class ImageHandler implements HttpHandler {
+
+    private final String validatorHeader;
+    private final String validator;
+    private final String conditionalHeader;
+
+    ImageHandler(String validatorHeader, String validator, String conditionalHeader) {
+      this.validatorHeader = validatorHeader;
+      this.validator = validator;
+      this.conditionalHeader = conditionalHeader;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+
+      try {
+        // Slow enough for a second fetch to come while the first one is running:
+        Thread.sleep(300);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (validator.equals(exchange.getRequestHeaders().getFirst(conditionalHeader))) {
+        notModified.incrementAndGet();
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+
+      exchange.getResponseHeaders().add(validatorHeader, validator);
+      exchange.sendResponseHeaders(200, IMAGE.length);
+      exchange.getResponseBody().write(IMAGE);
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.telerik.localnotifications;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reading the options of a notification each time it's built and scheduled: through a parsed {@link NotificationSpec}
+ * versus the optString/optInt/has lookups on the options JSONObject that Builder and NotificationRestoreReceiver used
+ * to do. Both read the same values, in the order the old code did.
+ *
+ * It also compares a cold read, when the options are decoded from their stored JSON first, as every alarm used to.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NotificationSpecBenchmark {
+
+  private static final int ITERATIONS = 100000;
+  private static final int ROUNDS = 10;
+
+  @Test
+  public void specVersusJSONObject() throws JSONException {
+    final JSONObject options = new JSONObject()
+        .put("id", 42)
+        .put("atTime", System.currentTimeMillis() + 60 * 60 * 1000)
+        .put("interval", "day")
+        .put("channel", "Reminders")
+        .put("title", "Stand-up")
+        .put("subtitle", "Daily")
+        .put("body", "The team stand-up starts in 5 minutes")
+        .put("ticker", "Stand-up in 5 minutes")
+        .put("icon", 17301543)
+        .put("badge", 3)
+        .put("color", 0xFF3F51B5)
+        .put("ongoing", false)
+        .put("forceShowWhenInForeground", true)
+        .put("sound", "default")
+        .put("notificationLed", 0xFF00FF00)
+        .put("thumbnail", true)
+        .put("image", "https://example.com/standup.png")
+        .put("groupedMessages", new JSONArray().put("Agenda").put("Blockers").put("Demos"))
+        .put("groupSummary", "3 topics")
+        .put("actions", new JSONArray().put(new JSONObject().put("id", "snooze").put("type", "button").put("title", "Snooze")));
+    final String stored = options.toString();
+    final NotificationSpec spec = NotificationSpec.fromJSON(options);
+
+    assertEquals(readJSONObject(options), readSpec(spec));
+
+    long json = Long.MAX_VALUE;
+    long parsed = Long.MAX_VALUE;
+    long coldJSON = Long.MAX_VALUE;
+    long coldParsed = Long.MAX_VALUE;
+    int checksum = 0;
+
+    // The first rounds warm up the JIT, taking the best of them all leaves those out:
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        checksum += readJSONObject(options);
+      }
+      json = Math.min(json, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        checksum += readSpec(spec);
+      }
+      parsed = Math.min(parsed, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS / 10; i++) {
+        checksum += readJSONObject(new JSONObject(stored));
+      }
+      coldJSON = Math.min(coldJSON, (System.nanoTime() - start) * 10);
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS / 10; i++) {
+        checksum += readSpec(NotificationSpec.fromJSON(new JSONObject(stored)));
+      }
+      coldParsed = Math.min(coldParsed, (System.nanoTime() - start) * 10);
+    }
+
+    System.out.println("NotificationSpec: per build, JSONObject lookups " + json / ITERATIONS + "ns, spec "
+        + parsed / ITERATIONS + "ns; decoded from the store first, JSONObject " + coldJSON / ITERATIONS + "ns, spec "
+        + coldParsed / ITERATIONS + "ns (checksum " + checksum + ")");
+  }
+
+  /**
+   * The lookups NotificationRestoreReceiver.scheduleNotification and Builder.build did on the options.
+   */
+  private static int readJSONObject(JSONObject options) {
+    int hash = options.optInt("id", 0);
+    hash = 31 * hash + (int) options.optLong("atTime", 0);
+    hash = 31 * hash + (options.optInt("alertWhileIdle", 0) == 1 ? 1 : 0);
+    hash = 31 * hash + (int) options.optLong("repeatInterval", 0);
+
+    hash = 31 * hash + hash(options.optString("channel", NotificationSpec.DEFAULT_CHANNEL));
+    hash = 31 * hash + hash(options.optString("title", null));
+    hash = 31 * hash + hash(options.optString("subtitle", null));
+    hash = 31 * hash + hash(options.optString("body", null));
+    hash = 31 * hash + options.optInt("icon");
+    hash = 31 * hash + options.optInt("badge");
+    hash = 31 * hash + options.optInt("color");
+    hash = 31 * hash + (options.optBoolean("ongoing") ? 1 : 0);
+    hash = 31 * hash + options.optInt("priority", options.optBoolean("forceShowWhenInForeground") ? 1 : 0);
+    hash = 31 * hash + hash(options.optString("ticker", null));
+    hash = 31 * hash + (Boolean.TRUE.equals(options.opt("thumbnail")) ? 1 : 0);
+    hash = 31 * hash + (options.has("sound") ? 1 : 0);
+
+    if (options.has("groupedMessages")) {
+      final JSONArray groupedMessages = options.optJSONArray("groupedMessages");
+      for (int i = 0; i < groupedMessages.length(); i++) {
+        hash = 31 * hash + hash(groupedMessages.optString(i));
+      }
+      hash = 31 * hash + hash(options.optString("title", null));
+      hash = 31 * hash + hash(options.optString("groupSummary", null));
+    } else if (options.optBoolean("bigTextStyle")) {
+      hash = 31 * hash + hash(options.optString("body"));
+    } else if (options.has("image")) {
+      hash = 31 * hash + hash(options.optString("image", ""));
+    }
+
+    hash = 31 * hash + (options.optBoolean("launch", true) ? 1 : 0);
+    hash = 31 * hash + (options.opt("actions") instanceof JSONArray ? 1 : 0);
+    hash = 31 * hash + options.optInt("id", 0);
+
+    if (options.has("notificationLed")) {
+      hash = 31 * hash + NotificationSpec.parseLedColor(options.opt("notificationLed"));
+    }
+
+    return hash;
+  }
+
+  /**
+   * The same values, read from a spec.
+   */
+  private static int readSpec(NotificationSpec spec) {
+    int hash = spec.getId();
+    hash = 31 * hash + (int) spec.getAtTime();
+    hash = 31 * hash + (spec.isAlertWhileIdle() ? 1 : 0);
+    hash = 31 * hash + (int) spec.getRepeatInterval();
+
+    hash = 31 * hash + hash(spec.getChannel());
+    hash = 31 * hash + hash(spec.getTitle());
+    hash = 31 * hash + hash(spec.getSubtitle());
+    hash = 31 * hash + hash(spec.getBody());
+    hash = 31 * hash + spec.getIcon();
+    hash = 31 * hash + spec.getBadge();
+    hash = 31 * hash + spec.getColor();
+    hash = 31 * hash + (spec.isOngoing() ? 1 : 0);
+    hash = 31 * hash + spec.getPriority();
+    hash = 31 * hash + hash(spec.getTicker());
+    hash = 31 * hash + (spec.isImageAsThumbnail() ? 1 : 0);
+    hash = 31 * hash + (spec.hasSound() ? 1 : 0);
+
+    if (spec.isGrouped()) {
+      for (String message : spec.getGroupedMessages()) {
+        hash = 31 * hash + hash(message);
+      }
+      hash = 31 * hash + hash(spec.getTitle());
+      hash = 31 * hash + hash(spec.getGroupSummary());
+    } else if (spec.isBigTextStyle()) {
+      hash = 31 * hash + hash(spec.getBody());
+    } else if (spec.getImage() != null) {
+      hash = 31 * hash + hash(spec.getImage());
+    }
+
+    hash = 31 * hash + (spec.isLaunch() ? 1 : 0);
+    hash = 31 * hash + (spec.getActions() != null ? 1 : 0);
+    hash = 31 * hash + spec.getId();
+
+    if (spec.hasNotificationLed()) {
+      hash = 31 * hash + spec.getLedColor();
+    }
+
+    return hash;
+  }
+
+  private static int hash(String value) {
+    return value == null ? 0 : value.hashCode();
+  }
+}
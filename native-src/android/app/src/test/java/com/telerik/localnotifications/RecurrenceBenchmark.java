@@ -0,0 +1,92 @@
+package com.telerik.localnotifications;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time to find the next occurrence of 10k mixed rules, from a day up to 3000 years after they started. The time per
+ * rule should stay about the same however far out it is, as occurrences are computed from their index rather than
+ * stepped through. It runs in UTC and in a zone with DST, where looking up the UTC offset of a far future time costs
+ * a bit more.
+ */
+public class RecurrenceBenchmark {
+
+  private static final int RULES = 10000;
+  private static final int ROUNDS = 10;
+
+  private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+  private static final long[] HORIZONS_DAYS = { 1, 365, 30 * 365, 3000 * 365 };
+
+  private static final String[] TIME_ZONES = { "UTC", "Europe/Berlin" };
+  private static final String[] INTERVALS = { "hour", "day", "week", "weekday", "month", "quarter", "year" };
+
+  private TimeZone defaultTimeZone;
+
+  @Before
+  public void setUp() {
+    defaultTimeZone = TimeZone.getDefault();
+  }
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault(defaultTimeZone);
+  }
+
+  @Test
+  public void nextOccurrenceOf10kRules() {
+    for (String timeZone : TIME_ZONES) {
+      TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+      benchmark(timeZone);
+    }
+  }
+
+  private static void benchmark(String timeZone) {
+    final Random random = new Random(42);
+    final long now = System.currentTimeMillis();
+    final Recurrence[] rules = new Recurrence[RULES];
+    final long[] starts = new long[RULES];
+
+    for (int i = 0; i < RULES; i++) {
+      starts[i] = now - (long) (random.nextDouble() * 30 * DAY_MS);
+      rules[i] = Recurrence.parse(INTERVALS[i % INTERVALS.length], 0, starts[i]);
+    }
+
+    // Warm up, so the first horizon isn't charged for the JIT:
+    for (int round = 0; round < ROUNDS; round++) {
+      run(rules, starts, 365 * DAY_MS);
+    }
+
+    for (long days : HORIZONS_DAYS) {
+      long best = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+        best = Math.min(best, run(rules, starts, days * DAY_MS));
+      }
+
+      System.out.println("Recurrence: next occurrence of " + RULES + " rules " + days + " days out in " + timeZone + ": "
+          + best / 1000000 + "ms (" + best / RULES + "ns per rule)");
+    }
+  }
+
+  /**
+   * @return Nanoseconds it took to find the next and last occurrence of every rule, the given time after its start
+   */
+  private static long run(Recurrence[] rules, long[] starts, long after) {
+    final long begin = System.nanoTime();
+
+    for (int i = 0; i < rules.length; i++) {
+      final long time = starts[i] + after;
+      final long next = rules[i].nextOccurrenceAfter(time);
+      final long last = rules[i].lastOccurrenceAtOrBefore(time);
+
+      assertTrue(next > time && last <= time);
+    }
+
+    return System.nanoTime() - begin;
+  }
+}
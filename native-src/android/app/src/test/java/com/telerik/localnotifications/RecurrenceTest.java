@@ -0,0 +1,100 @@
+package com.telerik.localnotifications;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecurrenceTest {
+
+  private static final long HOUR_MS = 60 * 60 * 1000L;
+
+  private TimeZone defaultTimeZone;
+
+  @Before
+  public void setUp() {
+    defaultTimeZone = TimeZone.getDefault();
+    // DST starts on 2021-03-28 and ends on 2021-10-31 here:
+    TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+  }
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault(defaultTimeZone);
+  }
+
+  @Test
+  public void dailyKeepsTheLocalTimeWhenDstStarts() {
+    final Recurrence daily = Recurrence.parse("day", 0, time(2021, Calendar.MARCH, 20, 9, 0));
+
+    final long before = daily.nextOccurrenceAfter(time(2021, Calendar.MARCH, 26, 10, 0));
+    final long after = daily.nextOccurrenceAfter(before);
+
+    assertEquals(time(2021, Calendar.MARCH, 27, 9, 0), before);
+    assertEquals(time(2021, Calendar.MARCH, 28, 9, 0), after);
+    assertEquals(23 * HOUR_MS, after - before);
+  }
+
+  @Test
+  public void dailyKeepsTheLocalTimeWhenDstEnds() {
+    final Recurrence daily = Recurrence.parse("day", 0, time(2021, Calendar.MARCH, 20, 9, 0));
+
+    final long before = daily.nextOccurrenceAfter(time(2021, Calendar.OCTOBER, 29, 10, 0));
+    final long after = daily.nextOccurrenceAfter(before);
+
+    assertEquals(time(2021, Calendar.OCTOBER, 30, 9, 0), before);
+    assertEquals(time(2021, Calendar.OCTOBER, 31, 9, 0), after);
+    assertEquals(25 * HOUR_MS, after - before);
+  }
+
+  @Test
+  public void dailyLastOccurrenceAcrossDst() {
+    final Recurrence daily = Recurrence.parse("day", 0, time(2021, Calendar.MARCH, 20, 9, 0));
+
+    assertEquals(time(2021, Calendar.MARCH, 27, 9, 0), daily.lastOccurrenceAtOrBefore(time(2021, Calendar.MARCH, 28, 8, 59)));
+    assertEquals(time(2021, Calendar.MARCH, 28, 9, 0), daily.lastOccurrenceAtOrBefore(time(2021, Calendar.MARCH, 28, 9, 0)));
+    assertEquals(time(2021, Calendar.OCTOBER, 31, 9, 0), daily.lastOccurrenceAtOrBefore(time(2021, Calendar.OCTOBER, 31, 23, 0)));
+  }
+
+  @Test
+  public void monthlyOnThe31stFiresOnTheLastDayOfShorterMonths() {
+    final long start = time(2021, Calendar.JANUARY, 31, 9, 0);
+    final Recurrence monthly = Recurrence.parse("month", 0, start);
+
+    long occurrence = monthly.nextOccurrenceAfter(start);
+    assertEquals(time(2021, Calendar.FEBRUARY, 28, 9, 0), occurrence);
+
+    // Back on the 31st (and at the same local time, past the start of DST):
+    occurrence = monthly.nextOccurrenceAfter(occurrence);
+    assertEquals(time(2021, Calendar.MARCH, 31, 9, 0), occurrence);
+
+    occurrence = monthly.nextOccurrenceAfter(occurrence);
+    assertEquals(time(2021, Calendar.APRIL, 30, 9, 0), occurrence);
+
+    occurrence = monthly.nextOccurrenceAfter(occurrence);
+    assertEquals(time(2021, Calendar.MAY, 31, 9, 0), occurrence);
+  }
+
+  @Test
+  public void monthlyLastOccurrenceOnThe31st() {
+    final long start = time(2021, Calendar.JANUARY, 31, 9, 0);
+    final Recurrence monthly = Recurrence.parse("month", 0, start);
+
+    assertEquals(0, monthly.lastOccurrenceAtOrBefore(start - 1));
+    assertEquals(start, monthly.lastOccurrenceAtOrBefore(time(2021, Calendar.FEBRUARY, 28, 8, 59)));
+    assertEquals(time(2021, Calendar.FEBRUARY, 28, 9, 0), monthly.lastOccurrenceAtOrBefore(time(2021, Calendar.MARCH, 31, 8, 59)));
+    assertEquals(time(2021, Calendar.MARCH, 31, 9, 0), monthly.lastOccurrenceAtOrBefore(time(2021, Calendar.APRIL, 29, 9, 0)));
+  }
+
+  private static long time(int year, int month, int day, int hour, int minute) {
+    final Calendar calendar = new GregorianCalendar(TimeZone.getDefault());
+    calendar.clear();
+    calendar.set(year, month, day, hour, minute);
+    return calendar.getTimeInMillis();
+  }
+}
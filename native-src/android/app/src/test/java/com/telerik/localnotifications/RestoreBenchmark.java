@@ -0,0 +1,99 @@
+package com.telerik.localnotifications;
+
+import android.app.AlarmManager;
+import android.app.NotificationManager;
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Boot restore of 10k scheduled notifications in both scheduler modes, against Robolectric's AlarmManager (which
+ * only records the alarms): one alarm per notification, as RestoreTask restores them, and the single alarm mode (see
+ * {@link AlarmScheduler#restore}).
+ *
+ * A few of them are daily notifications that came due while the device was off, which both modes move on to their
+ * next occurrence. The rest are due over the next week.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class RestoreBenchmark {
+
+  private static final int NOTIFICATIONS = 10000;
+  // One in this many came due while the device was off:
+  private static final int MISSED_EVERY = 100;
+
+  private static final long MINUTE_MS = 60 * 1000;
+
+  @Test
+  public void restore10kNotifications() throws JSONException {
+    final Context context = RuntimeEnvironment.getApplication();
+    final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    final ShadowAlarmManager alarms = Shadow.extract(alarmManager);
+    final long now = System.currentTimeMillis();
+
+    final List<NotificationSpec> specs = new ArrayList<NotificationSpec>(NOTIFICATIONS);
+    for (int id = 1; id <= NOTIFICATIONS; id++) {
+      final JSONObject options = new JSONObject()
+          .put("id", id)
+          .put("title", "Notification " + id)
+          .put("body", "Restored after a reboot");
+
+      if (id % MISSED_EVERY == 0) {
+        options.put("atTime", now - 3 * 24 * 60 * MINUTE_MS).put("interval", "day");
+      } else {
+        options.put("atTime", now + id * MINUTE_MS);
+      }
+
+      specs.add(NotificationSpec.fromJSON(options));
+    }
+    Store.saveAll(context, specs);
+    Store.flush(context);
+
+    // One alarm per notification, as RestoreTask does it:
+    long start = System.nanoTime();
+    final CatchUp catchUp = new CatchUp();
+    int restored = 0;
+    for (int id : StoreLog.get(context).ids()) {
+      final NotificationSpec spec = Store.getSpec(context, id);
+      if (spec != null && NotificationRestoreReceiver.scheduleNotification(spec, context, notificationManager, alarmManager, catchUp, false)) {
+        restored++;
+      }
+    }
+    catchUp.post(context, notificationManager);
+    final long perNotification = System.nanoTime() - start;
+    final int perNotificationAlarms = alarms.getScheduledAlarms().size();
+
+    assertEquals(NOTIFICATIONS, restored);
+    assertEquals(NOTIFICATIONS, perNotificationAlarms);
+
+    // The same store restored in the single alarm mode. Its alarm is the only one set from here on:
+    PluginConfig.setSingleAlarm(context, true);
+    start = System.nanoTime();
+    AlarmScheduler.restore(context);
+    final long singleAlarm = System.nanoTime() - start;
+    final int singleAlarms = alarms.getScheduledAlarms().size() - perNotificationAlarms;
+
+    assertEquals(1, singleAlarms);
+    assertEquals(NOTIFICATIONS, StoreLog.get(context).size());
+
+    PluginConfig.setSingleAlarm(context, false);
+
+    System.out.println("Restore of " + NOTIFICATIONS + " notifications: one alarm per notification "
+        + perNotification / 1000000 + "ms, " + perNotificationAlarms + " alarms; single alarm "
+        + singleAlarm / 1000000 + "ms, " + singleAlarms + " alarm");
+  }
+}
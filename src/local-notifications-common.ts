@@ -1,6 +1,9 @@
 import { Color } from "@nativescript/core";
 
-export type ScheduleInterval = "second" | "minute" | "hour" | "day" | "week" | "month" | "quarter" | "year";
+/**
+ * `weekday` (Monday to Friday) is Android only: iOS rejects notifications scheduled with it.
+ */
+export type ScheduleInterval = "second" | "minute" | "hour" | "day" | "week" | "weekday" | "month" | "quarter" | "year";
 
 export interface NotificationAction {
   id: string;
@@ -89,6 +92,10 @@ export interface ScheduleOptions {
    */
   color?: Color;
 
+  /**
+   * Repeat the notification. On Android, calendar units (day and up) repeat at the same local time, even across DST changes,
+   * and `weekday` repeats from Monday to Friday (Android only, iOS rejects it).
+   */
   interval?: ScheduleInterval;
 
   /**
@@ -185,12 +192,107 @@ export interface ScheduleOptions {
    */
   alertWhileIdle?: number;
 
+  /**
+   * Android only: What to do with an alertWhileIdle notification that was missed while the device was off.
+   * - "once" (default): show it once, no matter how many repeats were missed.
+   * - "summary": show it once, along with the number of missed repeats.
+   * - "drop": only show it if it was missed less than catchUpThreshold ms ago.
+   * When several notifications were missed, they're shown as a single group.
+   */
+  catchUp?: "once" | "summary" | "drop";
+
+  /**
+   * Android only: With catchUp "drop", how long ago (in ms) a notification may have been missed and still be shown.
+   * Default 0.
+   */
+  catchUpThreshold?: number;
+
+  /**
+   * Android only: Tags to look the notification up by, ie. ["project-x", "reminder"].
+   * See LocalNotificationsPlugin.getIdsByTag and cancelByTag on the native side.
+   */
+  tags?: Array<string>;
+
+  /**
+   * Android only: Key shared by related notifications, ie. those of the same project.
+   * They are bundled together, under a summary once enough of them (4 by default) are showing.
+   * It can also be used to look them up just like a tag.
+   */
+  groupKey?: string;
+
+  /**
+   * Android only: Show a progress bar, at this value (out of progressMax).
+   * Default not set.
+   */
+  progress?: number;
+
+  /**
+   * Android only: The value of progress when it's complete.
+   * Default 100.
+   */
+  progressMax?: number;
+
+  /**
+   * Android only: Show a progress bar that doesn't tell how far along it is.
+   * Default false.
+   */
+  progressIndeterminate?: boolean;
+
+  /**
+   * Android only: Only make a sound or vibrate the first time the notification is shown, not when it's updated.
+   * Default false.
+   */
+  onlyAlertOnce?: boolean;
+
   /**
    * Buttons or text input.
    */
   actions?: Array<NotificationAction>;
 }
 
+/**
+ * A notification channel (Android API >= 26), see `createChannels`.
+ */
+export interface ChannelOptions {
+  /**
+   * What `ScheduleOptions.channel` refers to it by.
+   */
+  id: string;
+
+  /**
+   * Shown in the app's notification settings.
+   * Default the id.
+   */
+  name?: string;
+
+  /**
+   * Shown in the app's notification settings.
+   * Default not set.
+   */
+  description?: string;
+
+  /**
+   * Default "high".
+   */
+  importance?: "min" | "low" | "default" | "high";
+
+  /**
+   * Default not set.
+   */
+  notificationLed?: boolean | Color;
+
+  /**
+   * Set to false for a silent channel.
+   * Default true.
+   */
+  sound?: boolean;
+
+  /**
+   * Default false.
+   */
+  vibrate?: boolean;
+}
+
 export interface ReceivedNotification {
   id: number;
   foreground: boolean;
@@ -235,6 +337,14 @@ export interface LocalNotificationsApi {
    */
   cancelAll(): Promise<any>;
 
+  /**
+   * Android only (API >= 26): Create the notification channels up front, with their settings.
+   * Otherwise a channel is created by the first notification that uses it, with that notification's LED settings.
+   * Once created, only a channel's name and description can be changed.
+   * Does nothing on iOS.
+   */
+  createChannels(channels: ChannelOptions[]): Promise<any>;
+
   /**
    * On Android you don't need permission, but on iOS you do.
    * Android will simply return true.
@@ -1,5 +1,6 @@
 import { Application, Utils }  from "@nativescript/core";
 import {
+  ChannelOptions,
   LocalNotificationsApi,
   LocalNotificationsCommon,
   ReceivedNotification,
@@ -30,8 +31,6 @@ function useAndroidX () {
 
 export class LocalNotificationsImpl extends LocalNotificationsCommon implements LocalNotificationsApi {
 
-  private static IS_GTE_LOLLIPOP: boolean = android.os.Build.VERSION.SDK_INT >= 21;
-
   private static getInterval(interval: ScheduleInterval): number {
     if (interval === "second") {
       return 1000; // it's in ms
@@ -43,8 +42,12 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
       return android.app.AlarmManager.INTERVAL_DAY;
     } else if (interval === "week") {
       return android.app.AlarmManager.INTERVAL_DAY * 7;
+    } else if (interval === "weekday") {
+      return android.app.AlarmManager.INTERVAL_DAY; // only roughly, see below
     } else if (interval === "month") {
       return android.app.AlarmManager.INTERVAL_DAY * 31; // well that's almost accurate
+    } else if (interval === "quarter") {
+      return android.app.AlarmManager.INTERVAL_DAY * 92; // same here
     } else if (interval === "year") {
       return android.app.AlarmManager.INTERVAL_DAY * 365; // same here
     } else {
@@ -52,28 +55,6 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
     }
   }
 
-  private static getIcon(context: any /* android.content.Context */, resources: any, iconLocation?: string): string {
-    const packageName: string = context.getApplicationInfo().packageName;
-    return iconLocation
-        && iconLocation.indexOf(Utils.RESOURCE_PREFIX) === 0
-        && resources.getIdentifier(iconLocation.substr(Utils.RESOURCE_PREFIX.length), "drawable", packageName)
-        || (LocalNotificationsImpl.IS_GTE_LOLLIPOP && resources.getIdentifier("ic_stat_notify_silhouette", "drawable", packageName))
-        || resources.getIdentifier("ic_stat_notify", "drawable", packageName)
-        || context.getApplicationInfo().icon;
-  }
-
-  private static cancelById(id: number): void {
-    const context = Utils.ad.getApplicationContext();
-    const notificationIntent = new android.content.Intent(context, com.telerik.localnotifications.NotificationAlarmReceiver.class).setAction("" + id);
-    const pendingIntent = android.app.PendingIntent.getBroadcast(context, 0, notificationIntent, 0);
-    const alarmManager = context.getSystemService(android.content.Context.ALARM_SERVICE);
-    alarmManager.cancel(pendingIntent);
-    const notificationManager = context.getSystemService(android.content.Context.NOTIFICATION_SERVICE);
-    notificationManager.cancel(id);
-    console.log('local-notifications.android - cancelById ', id);
-    com.telerik.localnotifications.Store.remove(context, id);
-  }
-
   hasPermission(): Promise<boolean> {
     return new Promise((resolve, reject) => {
       try {
@@ -138,7 +119,7 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
   cancel(id: number): Promise<boolean> {
     return new Promise((resolve, reject) => {
       try {
-        LocalNotificationsImpl.cancelById(id);
+        com.telerik.localnotifications.LocalNotificationsPlugin.cancel(Utils.ad.getApplicationContext(), id);
         resolve(true);
       } catch (ex) {
         console.log("Error in LocalNotifications.cancel: " + ex);
@@ -150,25 +131,40 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
   cancelAll(): Promise<void> {
     return new Promise((resolve, reject) => {
       try {
-        const context = Utils.ad.getApplicationContext();
+        // Cancels the alarms, the shown notifications and the stored options in a single native call:
+        const result = com.telerik.localnotifications.LocalNotificationsPlugin.cancelAll(Utils.ad.getApplicationContext());
+        console.log("local-notifications.android - cancelAll " + result);
+        resolve();
+      } catch (ex) {
+        console.log("Error in LocalNotifications.cancelAll: " + ex);
+        reject(ex);
+      }
+    });
+  }
 
-        // if (android.os.Build.VERSION.SDK_INT >= 26) {
-        //   const notificationManager = context.getSystemService(android.content.Context.NOTIFICATION_SERVICE);
-        //   console.log(">> >= 26, getActiveNotifications: " + notificationManager.getActiveNotifications());
-        // } else {
-        //   console.log(">> < 26, StatusBarNotification[0]: " + new android.service.notification.StatusBarNotification[0]);
-        // }
+  createChannels(channels: ChannelOptions[]): Promise<any> {
+    return new Promise((resolve, reject) => {
+      try {
+        const channelList = [];
 
-        const keys: Array<string> = com.telerik.localnotifications.Store.getKeys(Utils.ad.getApplicationContext());
+        for (let n in channels) {
+          const channel = LocalNotificationsImpl.merge(channels[n], {});
 
-        for (let i = 0; i < keys.length; i++) {
-          LocalNotificationsImpl.cancelById(parseInt(keys[i]));
+          if (channel.notificationLed && channel.notificationLed !== true) {
+            channel.notificationLed = channel.notificationLed.android;
+          }
+
+          channelList.push(channel);
         }
 
-        NotificationManagerCompatPackageName.NotificationManagerCompat.from(context).cancelAll();
+        // All of them in a single call:
+        com.telerik.localnotifications.LocalNotificationsPlugin.createChannels(
+            Utils.ad.getApplicationContext(),
+            new org.json.JSONArray(JSON.stringify(channelList)));
+
         resolve();
       } catch (ex) {
-        console.log("Error in LocalNotifications.cancelAll: " + ex);
+        console.log("Error in LocalNotifications.createChannels: " + ex);
         reject(ex);
       }
     });
@@ -201,8 +197,7 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
         }
 
         const context = Utils.ad.getApplicationContext();
-        const resources = context.getResources();
-        const scheduledIds: Array<number> = [];
+        const optionsList = [];
 
         // TODO: All these changes in the options (other than setting the ID) should rather be done in Java so that
         // the persisted options are exactly like the original ones.
@@ -210,15 +205,12 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
         for (let n in scheduleOptions) {
           const options = LocalNotificationsImpl.merge(scheduleOptions[n], LocalNotificationsImpl.defaults);
 
-          options.icon = LocalNotificationsImpl.getIcon(
-              context,
-              resources,
-              LocalNotificationsImpl.IS_GTE_LOLLIPOP && options.silhouetteIcon || options.icon
-          );
+          // icon and silhouetteIcon are resolved natively (and cached) by scheduleNotifications.
 
           options.atTime = options.at ? options.at.getTime() : 0;
 
-          // Used when restoring the notification after a reboot:
+          // An approximation for older versions of the plugin. The native side uses options.interval to compute
+          // the exact calendar occurrences:
           options.repeatInterval = LocalNotificationsImpl.getInterval(options.interval);
 
           if (options.color) {
@@ -231,11 +223,21 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
 
           LocalNotificationsImpl.ensureID(options);
 
-          com.telerik.localnotifications.LocalNotificationsPlugin.scheduleNotification(
-              new org.json.JSONObject(JSON.stringify(options)),
-              context);
+          optionsList.push(options);
+        }
+
+        // Schedule them all with a single call (and a single store write) rather than crossing the bridge per notification:
+        const results = JSON.parse(com.telerik.localnotifications.LocalNotificationsPlugin.scheduleNotifications(
+            new org.json.JSONArray(JSON.stringify(optionsList)),
+            context).toString());
 
-          scheduledIds.push(options.id);
+        const scheduledIds: Array<number> = [];
+        for (let i = 0; i < results.length; i++) {
+          if (results[i].scheduled) {
+            scheduledIds.push(results[i].id);
+          } else {
+            console.log("Error in LocalNotifications.schedule: " + results[i].error);
+          }
         }
 
         resolve(scheduledIds);
@@ -1,7 +1,7 @@
 import { DelegateObserver, SharedNotificationDelegate } from "@nativescript/shared-notification-delegate";
 import { File, knownFolders, path } from "@nativescript/core";
 import { ImageSource } from '@nativescript/core';
-import { LocalNotificationsApi, LocalNotificationsCommon, ReceivedNotification, ScheduleInterval, ScheduleOptions } from "./local-notifications-common";
+import { ChannelOptions, LocalNotificationsApi, LocalNotificationsCommon, ReceivedNotification, ScheduleInterval, ScheduleOptions } from "./local-notifications-common";
 
 declare const Notification: any;
 
@@ -401,6 +401,11 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
     });
   }
 
+  createChannels(channels: ChannelOptions[]): Promise<any> {
+    // Channels are an Android thing:
+    return Promise.resolve();
+  }
+
   getScheduledIds(): Promise<number[]> {
     return new Promise((resolve, reject) => {
       try {
@@ -434,6 +439,11 @@ export class LocalNotificationsImpl extends LocalNotificationsCommon implements
   schedule(options: ScheduleOptions[]): Promise<Array<number>> {
     return new Promise((resolve, reject) => {
       try {
+        // A calendar trigger can't match Monday to Friday only, so rather than repeating on the wrong days:
+        if (options.some(o => o.interval === "weekday")) {
+          throw new Error("The weekday interval is only supported on Android");
+        }
+
         if (!LocalNotificationsImpl.hasPermission()) {
           this.requestPermission().then(granted => {
             if (granted) {